@@ -0,0 +1,117 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic log corpus for benchmarks.
+ * <p>
+ * Matching lines are produced from one template per pattern,
+ * bucket names are drawn from a pool of configured cardinality
+ * with skewed (roughly Zipf) popularity. Non matching lines are
+ * taken from a set of typical application and container log lines.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class LogCorpus {
+
+	static final String[] NOISE = {
+		"2013-06-14 12:01:17,337 INFO  [main] o.a.c.c.StandardService - Starting service Catalina",
+		"2013-06-14 12:01:17,402 INFO  [main] o.a.c.c.StandardEngine - Starting Servlet Engine: Apache Tomcat/7.0.39",
+		"2013-06-14 12:01:19,015 DEBUG [http-bio-8080-exec-3] o.s.w.s.DispatcherServlet - DispatcherServlet with name 'dispatcher' processing GET request for [/app/status]",
+		"2013-06-14 12:01:19,016 DEBUG [http-bio-8080-exec-3] o.s.w.s.m.m.a.RequestMappingHandlerMapping - Looking up handler method for path /app/status",
+		"2013-06-14 12:01:19,118 WARN  [pool-2-thread-1] c.z.h.p.HikariPool - Connection is not available, request timed out after 30001ms.",
+		"2013-06-14 12:01:20,442 INFO  [Timer-0] o.g.c.s.PartitionService - Partition table is stable, 271 partitions, 3 members",
+		"2013-06-14 12:01:21,003 ERROR [http-bio-8080-exec-7] o.a.c.c.C.[.[.[/].[dispatcher] - Servlet.service() for servlet [dispatcher] threw exception",
+		"\tat java.net.SocketInputStream.socketRead0(Native Method)",
+		"\tat java.net.SocketInputStream.read(SocketInputStream.java:150)",
+		"2013-06-14 12:01:21,877 INFO  [GC-Monitor] GC PS Scavenge: collected 412M in 23ms",
+		"10.12.0.44 - - [14/Jun/2013:12:01:22 +0400] \"GET /static/css/main.css HTTP/1.1\" 304 - \"-\" \"Mozilla/5.0\"",
+		"2013-06-14 12:01:23,550 DEBUG [main] o.h.SQL - select order0_.id as id1_3_, order0_.status as status2_3_ from orders order0_ where order0_.customer_id=?",
+	};
+
+	static final String[] OPERATIONS = {"get", "put", "remove", "query", "scan", "lock", "commit", "rollback"};
+
+	/**
+	 * @param k pattern number
+	 * @return grok pattern matching lines of k-th template
+	 */
+	public static String pattern(int k) {
+		return "svc" + k + " %{WORD:NAME} completed in %{NUMBER:TIME}ms";
+	}
+
+	public static Map<String, String> variables() {
+		Map<String, String> vars = new HashMap<String, String>();
+		vars.put("NAME", "NAME");
+		vars.put("TIME", "TIME");
+		return vars;
+	}
+
+	/**
+	 * Configures appender with <code>patterns</code> reporters using pattern library from {@link JmxLoggerConfigTest}.
+	 */
+	public static void configure(StatisticsEngine appender, int patterns) {
+		appender.setPatternLibrary(JmxLoggerConfigTest.PATTERNS);
+		for(int k = 0; k != patterns; ++k) {
+			appender.addSimpleReporter(pattern(k), variables(), "Bench:svc=" + k + ",op=%{NAME}", "TIME", "", -1, -1);
+		}
+	}
+
+	/**
+	 * @param size number of lines
+	 * @param patterns number of configured patterns
+	 * @param hitRatio fraction of lines matching some pattern
+	 * @param names number of distinct bucket names per pattern
+	 * @see #sizeFor(int, int, double, int)
+	 */
+	/**
+	 * Corpus size, large enough for matching lines to cover the whole name pool.
+	 * Noise lines are shared, so only matching lines take memory.
+	 *
+	 * @param minSize lower bound of corpus size
+	 * @param hitsPerName average number of matching lines per distinct name
+	 */
+	public static int sizeFor(int minSize, int hitsPerName, double hitRatio, int totalNames) {
+		double size = (double)hitsPerName * totalNames / hitRatio;
+		return (int)Math.max(minSize, Math.min(Integer.MAX_VALUE / 2, size));
+	}
+
+	public static String[] generate(int size, int patterns, double hitRatio, int names, long seed) {
+		Random rnd = new Random(seed);
+		List<String> lines = new ArrayList<String>(size);
+		for(int i = 0; i != size; ++i) {
+			if (rnd.nextDouble() < hitRatio) {
+				int k = rnd.nextInt(patterns);
+				// square of uniform gives skewed popularity, few hot names and long tail
+				double u = rnd.nextDouble();
+				int n = (int)(u * u * names);
+				String op = OPERATIONS[n % OPERATIONS.length] + n;
+				double latency = Math.exp(rnd.nextGaussian() + 2);
+				lines.add("2013-06-14 12:01:" + (10 + i % 50) + ",000 INFO  [worker-" + (i % 16) + "] svc" + k + " " + op + " completed in " + String.format(Locale.ROOT, "%.3f", latency) + "ms");
+			}
+			else {
+				lines.add(NOISE[rnd.nextInt(NOISE.length)]);
+			}
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+}
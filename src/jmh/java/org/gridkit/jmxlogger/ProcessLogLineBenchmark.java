@@ -0,0 +1,126 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link StatisticsEngine#processLogLine(long, String)}.
+ * <p>
+ * Bucket cardinality is relative to bucket limit, values above 1
+ * force eviction/admission on the hot path. Run with <code>-prof gc</code>
+ * (default in <code>jmh</code> profile) to see allocation per event.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessLogLineBenchmark {
+
+	static final int CORPUS_SIZE = 1 << 14;
+	/** Tail names of skewed distribution get about half of this */
+	static final int HITS_PER_NAME = 8;
+	static final int BUCKET_LIMIT = 256;
+
+	@Param({"1", "10", "50"})
+	public int patterns;
+
+	@Param({"0.01", "0.1", "1"})
+	public double hitRatio;
+
+	@Param({"0.1", "1", "4"})
+	public double cardinality;
+
+	@Param({StatisticsEngine.MATCH_MODE_JORKA, StatisticsEngine.MATCH_MODE_COMPILED})
+	public String matchMode;
+
+	StatisticsEngine appender;
+	String[] lines;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		appender = new StatisticsEngine();
+		appender.setMatchMode(matchMode);
+		appender.setBucketLimit(BUCKET_LIMIT);
+		LogCorpus.configure(appender, patterns);
+		int names = Math.max(1, (int)(cardinality * BUCKET_LIMIT / patterns));
+		int size = LogCorpus.sizeFor(CORPUS_SIZE, HITS_PER_NAME, hitRatio, names * patterns);
+		lines = LogCorpus.generate(size, patterns, hitRatio, names, 42);
+		// compile matchers and populate buckets before measurement
+		long now = System.currentTimeMillis();
+		for(String line: lines) {
+			appender.processLogLine(now, line);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		appender.close();
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int n;
+
+		// different start per thread, so threads do not hit same bucket in lockstep
+		@Setup(Level.Trial)
+		public void setup() {
+			n = (int)(Thread.currentThread().getId() * 7919);
+		}
+
+		String next(String[] lines) {
+			return lines[(n++) & (lines.length - 1)];
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void process_1_thread(Cursor cursor) {
+		appender.processLogLine(System.currentTimeMillis(), cursor.next(lines));
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void process_4_threads(Cursor cursor) {
+		appender.processLogLine(System.currentTimeMillis(), cursor.next(lines));
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public void process_max_threads(Cursor cursor) {
+		appender.processLogLine(System.currentTimeMillis(), cursor.next(lines));
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.gridkit.jmxlogger.StatisticsEngine.InstantStats;
+
+/**
+ * Cost of {@link StatsBucket#append(long, double)} alone, under
+ * contention and while being concurrently analyzed.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsBucketBenchmark {
+
+	static final int SAMPLES = 1 << 12;
+
+	@Param({"1", "4", "16"})
+	public int stripes;
+
+	@Param({"false", "true"})
+	public boolean histogram;
+
+	StatsBucket bucket;
+	double[] samples;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.timeDepth = 30000;
+		spec.stripes = stripes;
+		if (histogram) {
+			spec.histogram = new LogLinearHistogram(1, 3600000, 2);
+		}
+		bucket = new StatsBucket(new ObjectName("Bench:name=bucket"), spec);
+		Random rnd = new Random(42);
+		samples = new double[SAMPLES];
+		for(int i = 0; i != SAMPLES; ++i) {
+			samples[i] = Math.exp(rnd.nextGaussian() + 2);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int n;
+
+		double next(double[] samples) {
+			return samples[(n++) & (samples.length - 1)];
+		}
+	}
+
+	@Benchmark
+	@Group("append_1")
+	@GroupThreads(1)
+	public void append_1_thread(Cursor cursor) {
+		bucket.append(System.currentTimeMillis(), cursor.next(samples));
+	}
+
+	@Benchmark
+	@Group("append_4")
+	@GroupThreads(4)
+	public void append_4_threads(Cursor cursor) {
+		bucket.append(System.currentTimeMillis(), cursor.next(samples));
+	}
+
+	@Benchmark
+	@Group("append_analyze")
+	@GroupThreads(4)
+	public void writer(Cursor cursor) {
+		bucket.append(System.currentTimeMillis(), cursor.next(samples));
+	}
+
+	@Benchmark
+	@Group("append_analyze")
+	@GroupThreads(1)
+	public InstantStats reader() {
+		return bucket.analyze();
+	}
+
+	@Benchmark
+	@Group("analyze")
+	@GroupThreads(1)
+	public InstantStats analyze() {
+		return bucket.analyze();
+	}
+}
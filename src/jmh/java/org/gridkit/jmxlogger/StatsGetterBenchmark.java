@@ -0,0 +1,118 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of reading {@link Stats} attributes, directly and through
+ * platform {@link MBeanServer}, with and without snapshot reuse.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsGetterBenchmark {
+
+	/** 0 - every read analyzes bucket */
+	@Param({"0", "100"})
+	public long snapshotTtl;
+
+	@Param({"false", "true"})
+	public boolean histogram;
+
+	Stats stats;
+	String[] attributes;
+	MBeanServer server;
+	ObjectName name;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.timeDepth = 30000;
+		if (histogram) {
+			spec.histogram = new LogLinearHistogram(1, 3600000, 2);
+		}
+		name = new ObjectName("Bench:name=stats");
+		StatsBucket bucket = new StatsBucket(name, spec);
+		Random rnd = new Random(42);
+		long now = System.currentTimeMillis();
+		for(int i = 0; i != 100000; ++i) {
+			bucket.append(now, Math.exp(rnd.nextGaussian() + 2));
+		}
+		stats = new Stats(bucket, snapshotTtl);
+		List<String> names = new ArrayList<String>(Stats.GETTERS.keySet());
+		attributes = names.toArray(new String[names.size()]);
+		server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(stats, name);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		server.unregisterMBean(name);
+	}
+
+	@Benchmark
+	public Object single_attribute() throws Exception {
+		return stats.getAttribute("SlidingAverage");
+	}
+
+	@Benchmark
+	public Object percentile_attribute() throws Exception {
+		return stats.getAttribute("SlidingP99");
+	}
+
+	@Benchmark
+	public Object lifetime_sum_attribute() throws Exception {
+		return stats.getAttribute("LifetimeSum");
+	}
+
+	@Benchmark
+	public AttributeList all_attributes() {
+		return stats.getAttributes(attributes);
+	}
+
+	@Benchmark
+	public AttributeList all_attributes_via_server() throws Exception {
+		return server.getAttributes(name, attributes);
+	}
+}
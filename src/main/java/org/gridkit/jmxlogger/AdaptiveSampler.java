@@ -0,0 +1,106 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uniform random sampler adjusting its probability, so number of
+ * accepted lines stays within configured lines per second budget.
+ * <p>
+ * Offered lines are counted in {@link StripedCounter}, once per
+ * adjustment period one of the callers recalculates probability.
+ * Probability drops immediately on spike and recovers gradually
+ * (at most doubling per period).
+ * Each accepted line carries weight (inverse of probability) to
+ * be used to scale counts and rates.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class AdaptiveSampler {
+
+	private static final long PERIOD = TimeUnit.SECONDS.toMillis(1);
+
+	private final double budget;
+	private final StripedCounter offered = new StripedCounter();
+	private final AtomicLong nextAdjust = new AtomicLong();
+	private volatile double probability = 1;
+
+	// updated only by thread which has won nextAdjust
+	private long lastOffered;
+	private long lastAdjust;
+
+	private final ThreadLocal<long[]> seed = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[]{System.nanoTime() ^ (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) | 1};
+		}
+	};
+
+	/**
+	 * @param budget lines per second to be accepted
+	 */
+	public AdaptiveSampler(double budget) {
+		if (budget <= 0) {
+			throw new IllegalArgumentException("Sampling budget should be positive");
+		}
+		this.budget = budget;
+	}
+
+	public double getProbability() {
+		return probability;
+	}
+
+	/**
+	 * @param timestamp current time in milliseconds
+	 * @return weight of accepted line or 0 if line should be skipped
+	 */
+	public double sample(long timestamp) {
+		offered.increment();
+		long next = nextAdjust.get();
+		if (timestamp >= next && nextAdjust.compareAndSet(next, timestamp + PERIOD)) {
+			adjust(timestamp);
+		}
+		double p = probability;
+		if (p >= 1) {
+			return 1;
+		}
+		return nextDouble() < p ? 1 / p : 0;
+	}
+
+	private synchronized void adjust(long timestamp) {
+		long total = offered.sum();
+		if (lastAdjust != 0 && timestamp > lastAdjust) {
+			double rate = (total - lastOffered) * 1000d / (timestamp - lastAdjust);
+			double target = rate <= budget ? 1 : budget / rate;
+			double p = probability;
+			probability = target < p ? target : Math.min(target, 2 * p);
+		}
+		lastOffered = total;
+		lastAdjust = timestamp;
+	}
+
+	private double nextDouble() {
+		long[] s = seed.get();
+		long x = s[0];
+		x ^= x << 13;
+		x ^= x >>> 7;
+		x ^= x << 17;
+		s[0] = x;
+		return (x >>> 11) * 0x1.0p-53;
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.gridkit.jmxlogger.StatisticsEngine.LineMatcher;
+import org.gridkit.jmxlogger.StatisticsEngine.Reporter;
+
+/**
+ * Exposes counters of {@link StatisticsEngine} as
+ * <code>org.gridkit.jmxlogger:type=AppenderStats</code> MBean.
+ * <p>
+ * Counters are striped, so hot path does not contend on them,
+ * and summed only when attribute is read.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class AppenderStats implements AppenderStatsMBean {
+
+	private static final String[] MATCHER_ITEMS = {"Pattern", "CandidateLines", "MatchedLines", "ReportErrors", "DroppedLines", "ShedLines", "Overloads", "MatchTimeP50", "MatchTimeP99", "MatchTimeP999"};
+	private static final CompositeType MATCHER_TYPE;
+	private static final TabularType MATCHER_TABLE_TYPE;
+	static {
+		try {
+			MATCHER_TYPE = new CompositeType("MatcherStats", "Counters of single matcher", MATCHER_ITEMS, MATCHER_ITEMS,
+					new OpenType<?>[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+							SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE});
+			MATCHER_TABLE_TYPE = new TabularType("MatcherStatsTable", "Counters of matchers", MATCHER_TYPE, new String[]{"Pattern"});
+		} catch (OpenDataException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static ObjectName nameOf(StatisticsEngine engine) {
+		String name = engine.getName();
+		if (name == null) {
+			name = Integer.toHexString(System.identityHashCode(engine));
+		}
+		try {
+			return new ObjectName("org.gridkit.jmxlogger:type=AppenderStats,name=" + ObjectName.quote(name));
+		} catch (MalformedObjectNameException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private final StatisticsEngine engine;
+
+	public AppenderStats(StatisticsEngine engine) {
+		this.engine = engine;
+	}
+
+	@Override
+	public String getOverloadPolicy() {
+		return engine.getOverloadPolicy();
+	}
+
+	@Override
+	public int getQueueSize() {
+		return engine.getAsyncQueueSize();
+	}
+
+	@Override
+	public long getDroppedLines() {
+		return engine.droppedLines.sum();
+	}
+
+	@Override
+	public long getShedLines() {
+		return engine.shedLines.sum();
+	}
+
+	@Override
+	public boolean isInstrumentation() {
+		return engine.isInstrumentation();
+	}
+
+	@Override
+	public long getProcessedLines() {
+		return engine.processedLines.sum();
+	}
+
+	@Override
+	public long getNameFailures() {
+		return engine.nameFailures.sum();
+	}
+
+	@Override
+	public long getReportErrors() {
+		long n = 0;
+		for(LineMatcher matcher: engine.getMatcherIndex().all()) {
+			n += errorsOf(matcher);
+		}
+		return n;
+	}
+
+	@Override
+	public long getBucketEvictions() {
+		return engine.getBucketEvictions();
+	}
+
+	@Override
+	public long getRegistrationFailures() {
+		return engine.registrationFailures.sum();
+	}
+
+	@Override
+	public long getRegistrationLag() {
+		return engine.getRegistrationLag();
+	}
+
+	@Override
+	public long getMaxRegistrationLag() {
+		return engine.getMaxRegistrationLag();
+	}
+
+	@Override
+	public double getAppendLatencyP50() {
+		return engine.appendLatency.percentiles(0.5)[0];
+	}
+
+	@Override
+	public double getAppendLatencyP99() {
+		return engine.appendLatency.percentiles(0.99)[0];
+	}
+
+	@Override
+	public double getAppendLatencyP999() {
+		return engine.appendLatency.percentiles(0.999)[0];
+	}
+
+	private static long errorsOf(LineMatcher matcher) {
+		long n = 0;
+		for(Reporter rep: matcher.repoters) {
+			n += rep.errors.sum();
+		}
+		return n;
+	}
+
+	@Override
+	public TabularData getMatchers() {
+		TabularDataSupport table = new TabularDataSupport(MATCHER_TABLE_TYPE);
+		try {
+			for(LineMatcher matcher: engine.getMatcherIndex().all()) {
+				double[] p = matcher.matchTime.percentiles(0.5, 0.99, 0.999);
+				Object[] values = {matcher.describe(), matcher.candidates.sum(), matcher.matched.sum(), errorsOf(matcher),
+						matcher.dropped.sum(), matcher.shed.sum(), matcher.overloads.sum(), p[0], p[1], p[2]};
+				table.put(new CompositeDataSupport(MATCHER_TYPE, MATCHER_ITEMS, values));
+			}
+		} catch (OpenDataException e) {
+			throw new RuntimeException(e);
+		}
+		return table;
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * Health of {@link StatisticsEngine} itself.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface AppenderStatsMBean {
+
+	@StatsMBean.Description("Overload policy")
+	public String getOverloadPolicy();
+
+	@StatsMBean.Description("Number of lines waiting in async queue")
+	public int getQueueSize();
+
+	@StatsMBean.Description("Lines dropped due to full async queue, see Matchers for per matcher counts")
+	public long getDroppedLines();
+
+	@StatsMBean.Description("Lines skipped due to async queue overload, see Matchers for per matcher counts")
+	public long getShedLines();
+
+	@StatsMBean.Description("Whether self instrumentation is enabled")
+	public boolean isInstrumentation();
+
+	@StatsMBean.Description("Lines passed to matching")
+	public long getProcessedLines();
+
+	@StatsMBean.Description("Failures to instantiate MBean name from captured values")
+	public long getNameFailures();
+
+	@StatsMBean.Description("Errors while reporting extracted values")
+	public long getReportErrors();
+
+	@StatsMBean.Description("Buckets evicted due to bucket limit")
+	public long getBucketEvictions();
+
+	@StatsMBean.Description("Failures to register MBean")
+	public long getRegistrationFailures();
+
+	@StatsMBean.Description("Delay (ms) between bucket change and its last processed MBean (un)registration")
+	public long getRegistrationLag();
+
+	@StatsMBean.Description("Max delay (ms) between bucket change and MBean (un)registration")
+	public long getMaxRegistrationLag();
+
+	@StatsMBean.Description("Median append() latency (ns)")
+	public double getAppendLatencyP50();
+
+	@StatsMBean.Description("99th percentile of append() latency (ns)")
+	public double getAppendLatencyP99();
+
+	@StatsMBean.Description("99.9th percentile of append() latency (ns)")
+	public double getAppendLatencyP999();
+
+	@StatsMBean.Description("Per matcher counters and match time percentiles (ns)")
+	public TabularData getMatchers();
+
+}
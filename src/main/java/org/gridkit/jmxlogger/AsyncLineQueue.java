@@ -0,0 +1,194 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer/multi-consumer queue of log lines.
+ * <p>
+ * Each slot carries a sequence number which tells producers and consumers
+ * whether slot is free to write or ready to read, so neither side
+ * takes a lock.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class AsyncLineQueue {
+
+	private final int mask;
+	private final AtomicLongArray sequence;
+	private final long[] timestamps;
+	private final String[] lines;
+	/** Routing context of each line, opaque to queue */
+	private final Object[] routes;
+
+	private final AtomicLong enqueuePos = new AtomicLong();
+	private final AtomicLong dequeuePos = new AtomicLong();
+	private volatile boolean closed;
+
+	public AsyncLineQueue(int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Queue capacity is too small: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		mask = size - 1;
+		sequence = new AtomicLongArray(size);
+		timestamps = new long[size];
+		lines = new String[size];
+		routes = new Object[size];
+		for(int i = 0; i != size; ++i) {
+			sequence.set(i, i);
+		}
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Marks queue as abandoned by consumers. Queue still accepts entries,
+	 * producers are expected to check {@link #isClosed()}.
+	 */
+	public void close() {
+		closed = true;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public int size() {
+		long size = enqueuePos.get() - dequeuePos.get();
+		return size < 0 ? 0 : (int)Math.min(size, capacity());
+	}
+
+	/**
+	 * @return <code>false</code> if queue is full
+	 */
+	public boolean offer(long timestamp, String line) {
+		return offer(timestamp, line, null);
+	}
+
+	/**
+	 * @param route routing context passed to consumer along with line, may be <code>null</code>
+	 * @return <code>false</code> if queue is full
+	 */
+	public boolean offer(long timestamp, String line, Object route) {
+		long pos = enqueuePos.get();
+		while(true) {
+			int n = (int)(pos & mask);
+			long dif = sequence.get(n) - pos;
+			if (dif == 0) {
+				if (enqueuePos.compareAndSet(pos, pos + 1)) {
+					timestamps[n] = timestamp;
+					lines[n] = line;
+					routes[n] = route;
+					sequence.lazySet(n, pos + 1);
+					return true;
+				}
+				pos = enqueuePos.get();
+			}
+			else if (dif < 0) {
+				return false;
+			}
+			else {
+				pos = enqueuePos.get();
+			}
+		}
+	}
+
+	/**
+	 * Removes oldest entry (if any) without reading it.
+	 * @return <code>false</code> if queue is empty
+	 */
+	public boolean discard() {
+		return discard(null);
+	}
+
+	/**
+	 * Removes oldest entry (if any) without reading its line.
+	 * @param routeBuf receives routing context of removed entry, ignored if <code>null</code>
+	 * @return <code>false</code> if queue is empty
+	 */
+	public boolean discard(Object[] routeBuf) {
+		long pos = dequeuePos.get();
+		while(true) {
+			int n = (int)(pos & mask);
+			long dif = sequence.get(n) - (pos + 1);
+			if (dif == 0) {
+				if (dequeuePos.compareAndSet(pos, pos + 1)) {
+					if (routeBuf != null) {
+						routeBuf[0] = routes[n];
+					}
+					lines[n] = null;
+					routes[n] = null;
+					sequence.lazySet(n, pos + mask + 1);
+					return true;
+				}
+				pos = dequeuePos.get();
+			}
+			else if (dif < 0) {
+				return false;
+			}
+			else {
+				pos = dequeuePos.get();
+			}
+		}
+	}
+
+	/**
+	 * Moves up to <code>limit</code> entries into provided arrays.
+	 * @return number of entries drained
+	 */
+	public int drainTo(long[] timestampBuf, String[] lineBuf, int limit) {
+		return drainTo(timestampBuf, lineBuf, null, limit);
+	}
+
+	/**
+	 * @param routeBuf receives routing context of each line, ignored if <code>null</code>
+	 * @return number of entries drained
+	 */
+	public int drainTo(long[] timestampBuf, String[] lineBuf, Object[] routeBuf, int limit) {
+		int count = 0;
+		long pos = dequeuePos.get();
+		while(count < limit) {
+			int n = (int)(pos & mask);
+			long dif = sequence.get(n) - (pos + 1);
+			if (dif == 0) {
+				if (dequeuePos.compareAndSet(pos, pos + 1)) {
+					timestampBuf[count] = timestamps[n];
+					lineBuf[count] = lines[n];
+					if (routeBuf != null) {
+						routeBuf[count] = routes[n];
+					}
+					lines[n] = null;
+					routes[n] = null;
+					sequence.lazySet(n, pos + mask + 1);
+					++count;
+				}
+				pos = dequeuePos.get();
+			}
+			else if (dif < 0) {
+				break;
+			}
+			else {
+				pos = dequeuePos.get();
+			}
+		}
+		return count;
+	}
+}
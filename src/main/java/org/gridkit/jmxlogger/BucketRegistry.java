@@ -0,0 +1,264 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.management.ObjectName;
+
+/**
+ * Concurrent registry of {@link StatsBucket}s bounded by bucket limit.
+ * <p>
+ * Lookups are lock free, hit only sets bucket's reference bit.
+ * Creation of new bucket is serialized and evicts buckets using
+ * CLOCK algorithm (approximation of LRU).
+ * <p>
+ * Once feed is enabled, every addition and eviction is reported
+ * as {@link BucketEvent}.
+ * <p>
+ * With frequency admission enabled, accesses are sampled into
+ * {@link FrequencySketch} (outside of lock) and new name replaces CLOCK
+ * victim only if its estimated frequency is higher than estimate of
+ * the victim. Otherwise its samples go to overflow bucket of reporter
+ * ({@link StatsBucket.Spec#overflowName}), so scan over many rare names
+ * could not flush out hot buckets. Overflow buckets are not counted
+ * toward limit and never evicted. Callers caching overflow bucket should
+ * report accesses via {@link #recordAccess(ObjectName)} and retry
+ * {@link #ensureBucket(ObjectName, StatsBucket.Spec)} from time to time.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class BucketRegistry {
+
+	private final ConcurrentHashMap<ObjectName, StatsBucket> buckets = new ConcurrentHashMap<ObjectName, StatsBucket>();
+	private volatile int limit;
+
+	// guarded by this
+	private final List<StatsBucket> clock = new ArrayList<StatsBucket>();
+	private int hand;
+	private boolean feedEnabled;
+	private volatile long evictionCount;
+
+	/** <code>null</code> unless frequency admission is enabled, read on hit path */
+	private volatile FrequencySketch sketch;
+
+	private final ConcurrentLinkedQueue<BucketEvent> feed = new ConcurrentLinkedQueue<BucketEvent>();
+
+	public BucketRegistry(int limit) {
+		setLimit(limit);
+	}
+
+	public void setLimit(int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("Bucket limit should be positive");
+		}
+		this.limit = limit;
+		synchronized(this) {
+			if (sketch != null) {
+				sketch = new FrequencySketch(limit);
+			}
+		}
+	}
+
+	public synchronized void setFrequencyAdmission(boolean enabled) {
+		sketch = enabled ? new FrequencySketch(limit) : null;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public int size() {
+		return buckets.size();
+	}
+
+	public StatsBucket get(ObjectName name) {
+		StatsBucket b = buckets.get(name);
+		if (b != null) {
+			touch(b);
+		}
+		return b;
+	}
+
+	/**
+	 * Marks bucket as recently used.
+	 */
+	public void touch(StatsBucket b) {
+		// avoid writing shared cache line if bit is already set
+		if (!b.referenced) {
+			b.referenced = true;
+		}
+		FrequencySketch s = sketch;
+		if (s != null && !b.overflow) {
+			s.sample(b.bucketName);
+		}
+	}
+
+	/**
+	 * Records access to name which has no bucket of its own, e.g. name
+	 * which has been redirected to overflow bucket.
+	 */
+	public void recordAccess(ObjectName name) {
+		FrequencySketch s = sketch;
+		if (s != null) {
+			s.sample(name);
+		}
+	}
+
+	public StatsBucket ensureBucket(ObjectName name, StatsBucket.Spec spec) {
+		StatsBucket b = get(name);
+		if (b != null) {
+			return b;
+		}
+		FrequencySketch s = sketch;
+		boolean admission = s != null && spec.overflowName != null && !name.equals(spec.overflowName);
+		if (admission) {
+			s.increment(name);
+		}
+		synchronized(this) {
+			b = buckets.get(name);
+			if (b != null) {
+				return b;
+			}
+			if (admission && clock.size() >= limit && s.estimate(name) <= s.estimate(clock.get(peekVictim()).bucketName)) {
+				return ensureOverflow(spec);
+			}
+			while(clock.size() >= limit) {
+				evictOne();
+			}
+			b = new StatsBucket(name, spec);
+			clock.add(b);
+			buckets.put(name, b);
+			publish(true, b);
+			return b;
+		}
+	}
+
+	// guarded by this
+	private StatsBucket ensureOverflow(StatsBucket.Spec spec) {
+		StatsBucket b = buckets.get(spec.overflowName);
+		if (b == null) {
+			b = new StatsBucket(spec.overflowName, spec);
+			b.overflow = true;
+			buckets.put(spec.overflowName, b);
+			publish(true, b);
+		}
+		return b;
+	}
+
+	/**
+	 * Finds next victim without moving hand or clearing reference bits.
+	 * @return index of victim
+	 */
+	// guarded by this
+	private int peekVictim() {
+		int n = clock.size();
+		int start = hand >= n ? 0 : hand;
+		for(int i = 0; i != n; ++i) {
+			int idx = (start + i) % n;
+			if (!clock.get(idx).referenced) {
+				return idx;
+			}
+		}
+		// all bits are set, full sweep would stop at start
+		return start;
+	}
+
+	/**
+	 * Moves CLOCK hand to next victim, clearing reference bits on its way.
+	 * @return index of victim
+	 */
+	// guarded by this
+	private int advanceHand() {
+		while(true) {
+			if (hand >= clock.size()) {
+				hand = 0;
+			}
+			StatsBucket c = clock.get(hand);
+			if (c.referenced) {
+				c.referenced = false;
+				++hand;
+			}
+			else {
+				return hand;
+			}
+		}
+	}
+
+	// guarded by this
+	private void evictOne() {
+		StatsBucket c = clock.get(advanceHand());
+		StatsBucket last = clock.remove(clock.size() - 1);
+		if (hand < clock.size()) {
+			clock.set(hand, last);
+		}
+		buckets.remove(c.bucketName, c);
+		c.evicted = true;
+		++evictionCount;
+		publish(false, c);
+	}
+
+	// guarded by this
+	private void publish(boolean added, StatsBucket b) {
+		if (feedEnabled) {
+			feed.add(new BucketEvent(added, b));
+		}
+	}
+
+	/**
+	 * Starts reporting changes, all present buckets are reported as added.
+	 */
+	public synchronized void enableFeed() {
+		if (!feedEnabled) {
+			feedEnabled = true;
+			for(StatsBucket b: buckets.values()) {
+				publish(true, b);
+			}
+		}
+	}
+
+	/**
+	 * @return next change or <code>null</code> if there are no pending changes
+	 */
+	public BucketEvent pollEvent() {
+		return feed.poll();
+	}
+
+	public List<StatsBucket> snapshot() {
+		return new ArrayList<StatsBucket>(buckets.values());
+	}
+
+	static class BucketEvent {
+
+		final boolean added;
+		final StatsBucket bucket;
+		/** {@link System#nanoTime()} of change */
+		final long timestamp;
+
+		BucketEvent(boolean added, StatsBucket bucket) {
+			this.added = added;
+			this.bucket = bucket;
+			this.timestamp = System.nanoTime();
+		}
+	}
+}
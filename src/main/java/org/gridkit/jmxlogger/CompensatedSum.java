@@ -0,0 +1,84 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.math.BigDecimal;
+
+/**
+ * Allocation free double-double accumulator.
+ * <p>
+ * Sum is kept as unevaluated pair <code>hi + lo</code>, each addition
+ * captures rounding error of <code>hi</code> exactly (Knuth's TwoSum)
+ * and folds it into <code>lo</code>. Result carries roughly 106 bits
+ * of mantissa, which is enough to replace {@link BigDecimal} running
+ * totals without creating garbage.
+ * <p>
+ * Not thread safe.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class CompensatedSum {
+
+	private double hi;
+	private double lo;
+
+	public void add(double v) {
+		double s = hi + v;
+		double bp = s - hi;
+		double err = (hi - (s - bp)) + (v - bp);
+		// renormalize, so lo stays below ulp of hi
+		double t = s + (lo + err);
+		lo = (lo + err) - (t - s);
+		hi = t;
+	}
+
+	public void add(CompensatedSum other) {
+		add(other.hi);
+		add(other.lo);
+	}
+
+	public void reset() {
+		hi = 0;
+		lo = 0;
+	}
+
+	/**
+	 * @return nearest double to sum
+	 */
+	public double hi() {
+		return hi;
+	}
+
+	/**
+	 * @return low order correction to {@link #hi()}
+	 */
+	public double lo() {
+		return lo;
+	}
+
+	public static BigDecimal toBigDecimal(double hi, double lo) {
+		if (Double.isNaN(hi) || Double.isInfinite(hi)) {
+			return null;
+		}
+		return new BigDecimal(hi).add(new BigDecimal(lo));
+	}
+
+	@Override
+	public String toString() {
+		BigDecimal d = toBigDecimal(hi, lo);
+		return d == null ? String.valueOf(hi) : d.toString();
+	}
+}
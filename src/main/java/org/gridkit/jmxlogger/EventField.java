@@ -0,0 +1,100 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+/**
+ * Reference to structured field of logging event, used as
+ * <code>&lt;var&gt;</code> expression:
+ * <code>$logger</code>, <code>$level</code>, <code>$thread</code>
+ * or <code>$mdc.KEY</code>.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class EventField {
+
+	static final String PREFIX = "$";
+
+	private static final int LOGGER = 0;
+	private static final int LEVEL = 1;
+	private static final int THREAD = 2;
+	private static final int MDC = 3;
+
+	public static boolean isFieldRef(String expr) {
+		return expr.startsWith(PREFIX);
+	}
+
+	public static EventField parse(String expr) {
+		String ref = expr.trim();
+		if (!isFieldRef(ref)) {
+			throw new IllegalArgumentException("Not an event field reference: " + expr);
+		}
+		ref = ref.substring(PREFIX.length());
+		if ("logger".equals(ref)) {
+			return new EventField(LOGGER, null);
+		}
+		else if ("level".equals(ref)) {
+			return new EventField(LEVEL, null);
+		}
+		else if ("thread".equals(ref)) {
+			return new EventField(THREAD, null);
+		}
+		else if (ref.startsWith("mdc.") && ref.length() > 4) {
+			return new EventField(MDC, ref.substring(4));
+		}
+		else {
+			throw new IllegalArgumentException("Unknown event field: " + expr);
+		}
+	}
+
+	private final int kind;
+	private final String key;
+
+	private EventField(int kind, String key) {
+		this.kind = kind;
+		this.key = key;
+	}
+
+	/**
+	 * @return MDC key or <code>null</code> if field is not MDC property
+	 */
+	public String getMdcKey() {
+		return kind == MDC ? key : null;
+	}
+
+	/**
+	 * @return field value or <code>null</code> if event does not have it
+	 */
+	public CharSequence get(LogEventFields event) {
+		switch(kind) {
+			case LOGGER: return event.getLoggerName();
+			case LEVEL: return event.getLevel();
+			case THREAD: return event.getThreadName();
+			default:
+				Object v = event.getProperty(key);
+				return v == null ? null : v instanceof CharSequence ? (CharSequence)v : v.toString();
+		}
+	}
+
+	@Override
+	public String toString() {
+		switch(kind) {
+			case LOGGER: return PREFIX + "logger";
+			case LEVEL: return PREFIX + "level";
+			case THREAD: return PREFIX + "thread";
+			default: return PREFIX + "mdc." + key;
+		}
+	}
+}
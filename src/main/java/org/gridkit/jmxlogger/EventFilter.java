@@ -0,0 +1,164 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects logging events by logger, level and MDC without
+ * looking at message text.
+ * <ul>
+ * <li>logger matches named logger and all its descendants</li>
+ * <li>level is a threshold, more severe events are matched too</li>
+ * <li>MDC key should be present, and equal to value if it is specified</li>
+ * </ul>
+ * Logger and level conditions are also used to scope text patterns,
+ * see {@link StatisticsEngine.MatcherIndex#route(LogEventFields)}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class EventFilter {
+
+	private static final String[][] LEVELS = {
+		{"TRACE", "FINEST", "FINER"},
+		{"DEBUG", "FINE", "CONFIG"},
+		{"INFO"},
+		{"WARN", "WARNING"},
+		{"ERROR", "SEVERE"},
+		{"FATAL"},
+	};
+
+	static final int LEVEL_COUNT = LEVELS.length;
+
+	/**
+	 * @return severity rank of level or -1 if level is unknown
+	 */
+	static int levelRank(String level) {
+		if (level == null) {
+			return -1;
+		}
+		for(int i = 0; i != LEVELS.length; ++i) {
+			for(String name: LEVELS[i]) {
+				if (name.equalsIgnoreCase(level)) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private String logger;
+	private String level;
+	private int minLevel = -1;
+	private final List<String> mdcKeys = new ArrayList<String>();
+	private final List<String> mdcValues = new ArrayList<String>();
+
+	public void setLogger(String logger) {
+		this.logger = logger == null ? null : logger.trim();
+	}
+
+	public void setLevel(String level) {
+		if (level == null) {
+			this.level = null;
+			this.minLevel = -1;
+		}
+		else {
+			int rank = levelRank(level.trim());
+			if (rank < 0) {
+				throw new IllegalArgumentException("Unknown level: " + level);
+			}
+			this.level = level.trim().toUpperCase();
+			this.minLevel = rank;
+		}
+	}
+
+	/**
+	 * @param value required value or <code>null</code> if key should just be present
+	 */
+	public void addMdc(String key, String value) {
+		if (key == null || key.trim().length() == 0) {
+			throw new IllegalArgumentException("MDC key is missing");
+		}
+		mdcKeys.add(key.trim());
+		mdcValues.add(value == null || value.length() == 0 ? null : value);
+	}
+
+	public boolean isLevelScoped() {
+		return minLevel >= 0;
+	}
+
+	public boolean hasMdc() {
+		return !mdcKeys.isEmpty();
+	}
+
+	/**
+	 * Checks logger and level conditions only, used to build routing table.
+	 * @param loggerName logger name or <code>null</code> if unknown
+	 * @param levelRank see {@link #levelRank(String)}
+	 */
+	public boolean acceptsScope(String loggerName, int levelRank) {
+		if (logger != null) {
+			if (loggerName == null || !loggerName.startsWith(logger)) {
+				return false;
+			}
+			if (loggerName.length() != logger.length() && loggerName.charAt(logger.length()) != '.') {
+				return false;
+			}
+		}
+		return minLevel < 0 || levelRank >= minLevel;
+	}
+
+	public boolean matches(LogEventFields event) {
+		if (logger != null || minLevel >= 0) {
+			if (!acceptsScope(event.getLoggerName(), minLevel < 0 ? -1 : levelRank(event.getLevel()))) {
+				return false;
+			}
+		}
+		for(int i = 0; i != mdcKeys.size(); ++i) {
+			Object v = event.getProperty(mdcKeys.get(i));
+			if (v == null) {
+				return false;
+			}
+			String expected = mdcValues.get(i);
+			if (expected != null && !expected.equals(v.toString())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Canonical description, used as matcher key.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (logger != null) {
+			sb.append("logger=").append(logger);
+		}
+		if (level != null) {
+			sb.append(sb.length() > 0 ? " " : "").append("level>=").append(level);
+		}
+		for(int i = 0; i != mdcKeys.size(); ++i) {
+			sb.append(sb.length() > 0 ? " " : "").append("mdc.").append(mdcKeys.get(i));
+			if (mdcValues.get(i) != null) {
+				sb.append('=').append(mdcValues.get(i));
+			}
+		}
+		return sb.length() == 0 ? "*" : sb.toString();
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+/**
+ * Flat, reusable holder of reporter variable values.
+ * <p>
+ * Each variable occupies a slot, slot value is a region of some
+ * {@link CharSequence} (usually log line itself), so no strings
+ * have to be created to pass captured values around.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class ExtractionRecord {
+
+	private CharSequence[] text = new CharSequence[0];
+	private int[] start = new int[0];
+	private int[] end = new int[0];
+	/** Scratch space for parsed slot values */
+	private double[] numbers = new double[0];
+	private int size;
+
+	/**
+	 * Clears record and makes sure it could hold <code>slots</code> values.
+	 */
+	public void reset(int slots) {
+		if (text.length < slots) {
+			text = new CharSequence[slots];
+			start = new int[slots];
+			end = new int[slots];
+			numbers = new double[slots];
+		}
+		for(int i = 0; i != size; ++i) {
+			text[i] = null;
+		}
+		size = slots;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void set(int slot, CharSequence value) {
+		set(slot, value, 0, value.length());
+	}
+
+	public void set(int slot, CharSequence source, int from, int to) {
+		text[slot] = source;
+		start[slot] = from;
+		end[slot] = to;
+	}
+
+	public CharSequence text(int slot) {
+		return text[slot];
+	}
+
+	public int start(int slot) {
+		return start[slot];
+	}
+
+	public int end(int slot) {
+		return end[slot];
+	}
+
+	public int length(int slot) {
+		return end[slot] - start[slot];
+	}
+
+	public char charAt(int slot, int n) {
+		return text[slot].charAt(start[slot] + n);
+	}
+
+	public void appendTo(int slot, StringBuilder sb) {
+		sb.append(text[slot], start[slot], end[slot]);
+	}
+
+	/**
+	 * Parses slot value in place, see {@link NumberParser}.
+	 */
+	public double parseDouble(int slot) {
+		return NumberParser.parseDouble(text[slot], start[slot], end[slot]);
+	}
+
+	/**
+	 * @return reusable array with element per slot, content is undefined
+	 */
+	public double[] numbers() {
+		return numbers;
+	}
+
+	/**
+	 * Allocates new string, should be avoided on hot path.
+	 */
+	public String toString(int slot) {
+		return text[slot].subSequence(start[slot], end[slot]).toString();
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-Min sketch estimating access frequency of keys, both
+ * owning a bucket and not.
+ * <p>
+ * Four rows of counters, conservative update. Once number of additions
+ * reaches sample size, all counters are halved, so estimates reflect
+ * recent history (aging as in TinyLFU).
+ * <p>
+ * Hot path accesses are reported via {@link #sample(Object)}, which records
+ * only one of {@link #SAMPLE_RATE} accesses (chosen by thread local random)
+ * with proportional weight, so bucket hits rarely write shared counters.
+ * <p>
+ * Lock free and deliberately racy, concurrent counter updates may be lost,
+ * which is acceptable for an estimate. Addition count is exact, so aging
+ * is never postponed by races. Only aging is exclusive.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class FrequencySketch {
+
+	private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+	/** Power of two */
+	static final int SAMPLE_RATE = 8;
+
+	private final AtomicIntegerArray table;
+	private final int mask;
+	private final int sampleSize;
+	/** Weighted additions since last aging, updated once per recorded access */
+	private final AtomicInteger additions = new AtomicInteger();
+	private final AtomicBoolean aging = new AtomicBoolean();
+
+	private final ThreadLocal<int[]> seed = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[]{(int)(System.nanoTime() ^ (Thread.currentThread().getId() * 0x9E3779B9)) | 1};
+		}
+	};
+
+	/**
+	 * @param capacity expected number of tracked keys (e.g. bucket limit)
+	 */
+	public FrequencySketch(int capacity) {
+		int width = Integer.highestOneBit(Math.max(16, capacity * 8 - 1)) << 1;
+		table = new AtomicIntegerArray(SEEDS.length * width);
+		mask = width - 1;
+		sampleSize = 10 * width;
+	}
+
+	/**
+	 * Records one occurrence of key.
+	 */
+	public void increment(Object key) {
+		add(key, 1);
+	}
+
+	/**
+	 * Records occurrence of key with probability <code>1/{@link #SAMPLE_RATE}</code>,
+	 * estimates stay comparable with {@link #increment(Object)}.
+	 */
+	public void sample(Object key) {
+		int[] s = seed.get();
+		// xorshift
+		int x = s[0];
+		x ^= x << 13;
+		x ^= x >>> 17;
+		x ^= x << 5;
+		s[0] = x;
+		if ((x & (SAMPLE_RATE - 1)) == 0) {
+			add(key, SAMPLE_RATE);
+		}
+	}
+
+	private void add(Object key, int weight) {
+		int h = key.hashCode();
+		int min = Integer.MAX_VALUE;
+		for(int i = 0; i != SEEDS.length; ++i) {
+			min = Math.min(min, table.get(index(h, i)));
+		}
+		for(int i = 0; i != SEEDS.length; ++i) {
+			int n = index(h, i);
+			if (table.get(n) == min) {
+				table.lazySet(n, min + weight);
+			}
+		}
+		if (additions.addAndGet(weight) >= sampleSize && aging.compareAndSet(false, true)) {
+			try {
+				age();
+			}
+			finally {
+				aging.set(false);
+			}
+		}
+	}
+
+	public int estimate(Object key) {
+		int h = key.hashCode();
+		int min = Integer.MAX_VALUE;
+		for(int i = 0; i != SEEDS.length; ++i) {
+			min = Math.min(min, table.get(index(h, i)));
+		}
+		return min;
+	}
+
+	private void age() {
+		for(int i = 0; i != table.length(); ++i) {
+			table.lazySet(i, table.get(i) >>> 1);
+		}
+		// concurrent additions are preserved
+		additions.addAndGet(-sampleSize / 2);
+	}
+
+	private int index(int hash, int row) {
+		int h = hash * SEEDS[row];
+		h ^= h >>> 16;
+		return row * (mask + 1) + (h & mask);
+	}
+}
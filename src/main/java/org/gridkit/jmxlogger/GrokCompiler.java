@@ -0,0 +1,181 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Expands grok expressions into plain {@link Pattern} keeping track
+ * of capture group numbers, so captures could be read directly
+ * from {@link Matcher} without intermediate maps.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class GrokCompiler {
+
+	private static final Pattern REFERENCE = Pattern.compile("%\\{(\\w+)(?::([\\w.@\\[\\]-]+))?(?::\\w+)?\\}");
+
+	private static final int MAX_DEPTH = 64;
+
+	private final Map<String, String> library = new HashMap<String, String>();
+
+	public GrokCompiler(String patternLibrary) {
+		if (patternLibrary != null) {
+			try {
+				BufferedReader reader = new BufferedReader(new StringReader(patternLibrary));
+				String line;
+				while((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() == 0 || line.startsWith("#")) {
+						continue;
+					}
+					int n = line.indexOf(' ');
+					if (n < 0) {
+						throw new IllegalArgumentException("Bad pattern definition: " + line);
+					}
+					library.put(line.substring(0, n), line.substring(n + 1).trim());
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	public GrokPattern compile(String pattern) {
+		StringBuilder sb = new StringBuilder();
+		List<String> names = new ArrayList<String>();
+		List<Integer> positions = new ArrayList<Integer>();
+		expand(pattern, sb, names, positions, 0);
+
+		String regex = sb.toString();
+		Pattern p = Pattern.compile(regex);
+
+		// number capturing groups in order of their opening parenthesis
+		Map<Integer, Integer> groupAt = new HashMap<Integer, Integer>();
+		int group = 0;
+		int classDepth = 0;
+		for(int i = 0; i < regex.length(); ++i) {
+			char ch = regex.charAt(i);
+			if (ch == '\\') {
+				++i;
+			}
+			else if (ch == '[') {
+				++classDepth;
+			}
+			else if (classDepth > 0) {
+				if (ch == ']') {
+					--classDepth;
+				}
+			}
+			else if (ch == '(') {
+				if (i + 1 < regex.length() && regex.charAt(i + 1) == '?') {
+					// only named groups are capturing
+					if (i + 3 < regex.length() && regex.charAt(i + 2) == '<' && regex.charAt(i + 3) != '=' && regex.charAt(i + 3) != '!') {
+						++group;
+					}
+				}
+				else {
+					++group;
+					groupAt.put(i, group);
+				}
+			}
+		}
+
+		Map<String, List<Integer>> captures = new LinkedHashMap<String, List<Integer>>();
+		for(int i = 0; i != names.size(); ++i) {
+			List<Integer> groups = captures.get(names.get(i));
+			if (groups == null) {
+				groups = new ArrayList<Integer>();
+				captures.put(names.get(i), groups);
+			}
+			groups.add(groupAt.get(positions.get(i)));
+		}
+		Map<String, int[]> result = new LinkedHashMap<String, int[]>();
+		for(String name: captures.keySet()) {
+			List<Integer> groups = captures.get(name);
+			int[] g = new int[groups.size()];
+			for(int i = 0; i != g.length; ++i) {
+				g[i] = groups.get(i);
+			}
+			result.put(name, g);
+		}
+
+		return new GrokPattern(pattern, p, result);
+	}
+
+	private void expand(String pattern, StringBuilder sb, List<String> names, List<Integer> positions, int depth) {
+		if (depth > MAX_DEPTH) {
+			throw new IllegalArgumentException("Pattern recursion is too deep: " + pattern);
+		}
+		Matcher m = REFERENCE.matcher(pattern);
+		int n = 0;
+		while(m.find()) {
+			sb.append(pattern, n, m.start());
+			String def = library.get(m.group(1));
+			if (def == null) {
+				throw new IllegalArgumentException("Unknown pattern %{" + m.group(1) + "}");
+			}
+			names.add(m.group(2) == null ? m.group(1) : m.group(2));
+			positions.add(sb.length());
+			sb.append('(');
+			expand(def, sb, names, positions, depth + 1);
+			sb.append(')');
+			n = m.end();
+		}
+		sb.append(pattern, n, pattern.length());
+	}
+
+	/**
+	 * Regex expanded from grok expression with capture group numbers.
+	 */
+	static class GrokPattern {
+
+		final String source;
+		final Pattern regex;
+		/** Capture name to group numbers, if name is reused first matched group wins */
+		final Map<String, int[]> captures;
+
+		GrokPattern(String source, Pattern regex, Map<String, int[]> captures) {
+			this.source = source;
+			this.regex = regex;
+			this.captures = captures;
+		}
+
+		/**
+		 * @return number of group holding capture or -1 if capture did not participate in match
+		 */
+		public int groupOf(Matcher m, String name) {
+			int[] groups = captures.get(name);
+			if (groups != null) {
+				for(int g: groups) {
+					if (m.start(g) >= 0) {
+						return g;
+					}
+				}
+			}
+			return -1;
+		}
+	}
+}
@@ -20,9 +20,11 @@ import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -37,7 +39,7 @@ class JmxLoggerConfig {
 			throw new IllegalArgumentException("var is empty");
 		}
 		else {
-			if (Character.isJavaIdentifierStart(name.charAt(0))) {
+			if (!Character.isJavaIdentifierStart(name.charAt(0))) {
 				throw new IllegalArgumentException("Not a valid name '" + name + "'");
 			}
 			for(int i = 1; i != name.length(); ++i) {
@@ -85,36 +87,73 @@ class JmxLoggerConfig {
 	
 	public static class Matcher {
 		
+		/** Regex (grok) pattern, matcher without pattern selects events by structured fields */
 		@XmlElement(name = "pattern")
 		public String pattern;
 
+		/** Logger name, descendant loggers are matched too. Scopes pattern if it is present */
+		@XmlElement(name = "logger")
+		public String logger;
+
+		/** Minimal level of event */
+		@XmlElement(name = "level")
+		public String level;
+
+		/** MDC conditions, allowed only for matcher without pattern */
+		@XmlElement(name = "mdc")
+		public List<MdcCondition> mdc = new ArrayList<MdcCondition>();
+
 		@XmlTransient
 		public Map<String, Variable> vars = new LinkedHashMap<String, Variable>(); 
 
+		@XmlElement(name = "var")
+		List<Variable> varList = new ArrayList<Variable>();
+
 		@XmlElement(name = "mbean")
 		public List<MBean> beans = new ArrayList<MBean>(); 
-		
-		@XmlElement(name = "var")
-		public void setVars(List<Variable> vars) {
-			for(Variable var: vars) {
+
+		/**
+		 * @return <code>true</code> if matcher has logger, level or MDC conditions
+		 */
+		public boolean hasEventConditions() {
+			return logger != null || level != null || !mdc.isEmpty();
+		}
+
+		/** JAXB callback */
+		void afterUnmarshal(Unmarshaller u, Object parent) {
+			for(Variable var: varList) {
 				addVar(var);
 			}
+			varList.clear();
 		}
-		
+
 		public void addVar(Variable var) {
-			var.name = var.name.trim();
-			validateVarName(var.name);
 			if (var.name == null) {
 				throw new IllegalArgumentException("@name is missing for <var>");
 			}
+			var.name = var.name.trim();
+			validateVarName(var.name);
 			if (var.expr == null || var.expr.trim().length() == 0) {
 				throw new IllegalArgumentException("Content is missing for <var>");
 			}
 			if (vars.containsKey(var.name)) {
 				throw new IllegalArgumentException("Duplicate var '" + var.name + "'");
 			}
+			vars.put(var.name, var);
 		}		
 	}
+
+	/**
+	 * MDC key should be present, and have given value if element has content.
+	 */
+	public static class MdcCondition {
+
+		@XmlAttribute(name = "key", required = true)
+		public String key;
+
+		@XmlValue
+		public String value;
+	}
 	
 	public static class Variable {
 		
@@ -130,17 +169,66 @@ class JmxLoggerConfig {
 		@XmlElement(name = "name", required = true)
 		public String mbean;
 		
+		/** Variable name or arithmetic expression over variables, see {@link ReportExpression} */
 		@XmlElement(name = "report", required = true)
 		public String valueRef;
 
 		@XmlElement(name = "description")
 		public String description;
 
+		/** Ignored, sliding window is time sliced, see {@link #slices} */
 		@XmlElement(name = "buffer-size")
 		public int bufferSize = -1;
 
+		@XmlElement(name = "slices")
+		public int slices = -1;
+
 		@XmlElement(name = "time-depth")
 		public String timeDepth = null;
+
+		@XmlElement(name = "stripes")
+		public int stripes = -1;
+
+		@XmlElement(name = "histogram")
+		public Histogram histogram = null;
+
+		@XmlElement(name = "aggregate")
+		public Aggregate aggregate = null;
 		
 	}	
+
+	public static class Aggregate {
+
+		/** Name of aggregated MBean */
+		@XmlElement(name = "name", required = true)
+		public String name;
+
+		/** Register MBean per bucket in addition to aggregated one */
+		@XmlElement(name = "publish-buckets")
+		public boolean publishBuckets = false;
+	}
+
+	/**
+	 * Percentile histogram of reporter, disabled unless <code>&lt;histogram&gt;</code>
+	 * is present in <code>&lt;mbean&gt;</code>. Each stripe of bucket allocates up to
+	 * <code>length * (8 + 4 * (slices + 1))</code> bytes once sampled, where length
+	 * is 304 for default layout (1 ms - 1 h, precision 1), about 15 KiB with 10 slices.
+	 * Precision 2 raises length to 2048 (about 104 KiB), precision 3 to 13312 (about 676 KiB).
+	 * <p>
+	 * Worst case total is bucket limit &times; stripes &times; size of stripe,
+	 * e.g. about 15 MiB for default limit of 1000 buckets with one stripe,
+	 * or about 102 MiB with precision 2.
+	 */
+	public static class Histogram {
+
+		@XmlElement(name = "min")
+		public double lowest = 1;
+
+		@XmlElement(name = "max")
+		public double highest = TimeUnit.HOURS.toMillis(1);
+
+		/** Significant decimal digits, relative error is about 6% with 1, 0.8% with 2 */
+		@XmlElement(name = "precision")
+		public int precision = 1;
+	}
 }
@@ -0,0 +1,409 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton over literal substrings required by patterns.
+ * <p>
+ * Single scan of a line yields patterns which have all their required
+ * literals present. Only those patterns could possibly match, rest
+ * of them could be skipped without running regex.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class LiteralIndex {
+
+	private static final String META_CHARS = "\\^$.|?*+()[]{}";
+
+	/**
+	 * Extracts literal substrings which should be present in any line
+	 * matched by grok pattern. Analysis is conservative, anything not
+	 * understood breaks literal run, so result may be incomplete but
+	 * never wrong.
+	 */
+	public static List<String> requiredLiterals(String pattern) {
+		Set<String> result = new LinkedHashSet<String>();
+		if (pattern.contains("\\Q") || pattern.matches("(?s).*\\(\\?[a-zA-Z-]+[:)].*")) {
+			// quoting and inline flags are not analyzed
+			return new ArrayList<String>();
+		}
+		StringBuilder run = new StringBuilder();
+		int n = 0;
+		while(n < pattern.length()) {
+			char ch = pattern.charAt(n);
+			if (ch == '%' && n + 1 < pattern.length() && pattern.charAt(n + 1) == '{') {
+				flush(run, result);
+				n = skipTo(pattern, n + 2, '}');
+			}
+			else if (ch == '|') {
+				// top level alternation, nothing is required
+				return new ArrayList<String>();
+			}
+			else if (ch == '(') {
+				flush(run, result);
+				n = skipGroup(pattern, n);
+			}
+			else if (ch == '[') {
+				flush(run, result);
+				n = skipClass(pattern, n);
+			}
+			else if (ch == '{' || ch == '?' || ch == '*' || ch == '+') {
+				// quantifier applied to non literal atom
+				flush(run, result);
+				n = skipQuantifier(pattern, n);
+			}
+			else if (ch == '\\') {
+				if (n + 1 >= pattern.length()) {
+					break;
+				}
+				char ech = pattern.charAt(n + 1);
+				if (Character.isLetterOrDigit(ech)) {
+					flush(run, result);
+					n = skipEscape(pattern, n + 1);
+				}
+				else {
+					n = appendLiteral(pattern, n + 2, ech, run, result);
+				}
+			}
+			else if (META_CHARS.indexOf(ch) >= 0) {
+				flush(run, result);
+				++n;
+			}
+			else {
+				n = appendLiteral(pattern, n + 1, ch, run, result);
+			}
+		}
+		flush(run, result);
+		return new ArrayList<String>(result);
+	}
+
+	private static int appendLiteral(String pattern, int n, char ch, StringBuilder run, Set<String> result) {
+		char next = n < pattern.length() ? pattern.charAt(n) : 0;
+		if (next == '?' || next == '*' || next == '{') {
+			// char is optional
+			flush(run, result);
+			return skipQuantifier(pattern, n);
+		}
+		else if (next == '+') {
+			run.append(ch);
+			flush(run, result);
+			return skipQuantifier(pattern, n);
+		}
+		else {
+			run.append(ch);
+			return n;
+		}
+	}
+
+	private static void flush(StringBuilder run, Set<String> result) {
+		if (run.length() > 0) {
+			result.add(run.toString());
+			run.setLength(0);
+		}
+	}
+
+	private static int skipTo(String pattern, int n, char terminator) {
+		int i = pattern.indexOf(terminator, n);
+		return i < 0 ? pattern.length() : i + 1;
+	}
+
+	private static int skipQuantifier(String pattern, int n) {
+		if (pattern.charAt(n) == '{') {
+			n = skipTo(pattern, n + 1, '}');
+		}
+		else {
+			++n;
+		}
+		// lazy or possessive modifier
+		if (n < pattern.length() && (pattern.charAt(n) == '?' || pattern.charAt(n) == '+')) {
+			++n;
+		}
+		return n;
+	}
+
+	private static int skipEscape(String pattern, int n) {
+		// skip escape letter and anything which may be its argument
+		++n;
+		while(n < pattern.length()) {
+			char ch = pattern.charAt(n);
+			if (Character.isLetterOrDigit(ch)) {
+				++n;
+			}
+			else if (ch == '{') {
+				n = skipTo(pattern, n + 1, '}');
+			}
+			else if (ch == '<') {
+				n = skipTo(pattern, n + 1, '>');
+			}
+			else {
+				break;
+			}
+		}
+		return n;
+	}
+
+	private static int skipClass(String pattern, int n) {
+		int depth = 0;
+		while(n < pattern.length()) {
+			char ch = pattern.charAt(n);
+			if (ch == '\\') {
+				n += 2;
+				continue;
+			}
+			else if (ch == '[') {
+				++depth;
+			}
+			else if (ch == ']') {
+				--depth;
+				if (depth == 0) {
+					return n + 1;
+				}
+			}
+			++n;
+		}
+		return n;
+	}
+
+	private static int skipGroup(String pattern, int n) {
+		int depth = 0;
+		while(n < pattern.length()) {
+			char ch = pattern.charAt(n);
+			if (ch == '\\') {
+				n += 2;
+				continue;
+			}
+			else if (ch == '[') {
+				n = skipClass(pattern, n);
+				continue;
+			}
+			else if (ch == '(') {
+				++depth;
+			}
+			else if (ch == ')') {
+				--depth;
+				if (depth == 0) {
+					return n + 1;
+				}
+			}
+			++n;
+		}
+		return n;
+	}
+
+	private final int[] rootNext = new int[128];
+	private final char[][] edgeChars;
+	private final int[][] edgeTargets;
+	private final int[] fail;
+	private final int[][] output;
+
+	private final int literalCount;
+	private final int[][] literalOwners;
+	private final int[] requiredCount;
+	private final int[] unconditional;
+
+	private final ThreadLocal<ScanState> scanState = new ThreadLocal<ScanState>() {
+		@Override
+		protected ScanState initialValue() {
+			return new ScanState();
+		}
+	};
+
+	/**
+	 * @param literals required literals for each pattern, pattern is identified by its position in list
+	 */
+	public LiteralIndex(List<List<String>> literals) {
+		Map<String, Integer> ids = new LinkedHashMap<String, Integer>();
+		List<List<Integer>> owners = new ArrayList<List<Integer>>();
+		List<Integer> uncond = new ArrayList<Integer>();
+		requiredCount = new int[literals.size()];
+		for(int m = 0; m != literals.size(); ++m) {
+			Set<String> lits = new LinkedHashSet<String>(literals.get(m));
+			requiredCount[m] = lits.size();
+			if (lits.isEmpty()) {
+				uncond.add(m);
+			}
+			for(String lit: lits) {
+				Integer id = ids.get(lit);
+				if (id == null) {
+					id = ids.size();
+					ids.put(lit, id);
+					owners.add(new ArrayList<Integer>());
+				}
+				owners.get(id).add(m);
+			}
+		}
+		literalCount = ids.size();
+		literalOwners = new int[owners.size()][];
+		for(int i = 0; i != owners.size(); ++i) {
+			literalOwners[i] = toArray(owners.get(i));
+		}
+		unconditional = toArray(uncond);
+
+		// build trie
+		List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character,Integer>>();
+		List<List<Integer>> out = new ArrayList<List<Integer>>();
+		trie.add(new TreeMap<Character, Integer>());
+		out.add(new ArrayList<Integer>());
+		for(Map.Entry<String, Integer> e: ids.entrySet()) {
+			int s = 0;
+			for(char ch: e.getKey().toCharArray()) {
+				Integer t = trie.get(s).get(ch);
+				if (t == null) {
+					t = trie.size();
+					trie.add(new TreeMap<Character, Integer>());
+					out.add(new ArrayList<Integer>());
+					trie.get(s).put(ch, t);
+				}
+				s = t;
+			}
+			out.get(s).add(e.getValue());
+		}
+
+		int states = trie.size();
+		edgeChars = new char[states][];
+		edgeTargets = new int[states][];
+		for(int s = 0; s != states; ++s) {
+			TreeMap<Character, Integer> edges = trie.get(s);
+			edgeChars[s] = new char[edges.size()];
+			edgeTargets[s] = new int[edges.size()];
+			int i = 0;
+			for(Map.Entry<Character, Integer> e: edges.entrySet()) {
+				edgeChars[s][i] = e.getKey();
+				edgeTargets[s][i] = e.getValue();
+				++i;
+			}
+		}
+		for(int c = 0; c != rootNext.length; ++c) {
+			Integer t = trie.get(0).get((char)c);
+			rootNext[c] = t == null ? 0 : t;
+		}
+
+		// failure links, breadth first
+		fail = new int[states];
+		output = new int[states][];
+		int[] queue = new int[states];
+		int qh = 0;
+		int qt = 0;
+		queue[qt++] = 0;
+		while(qh < qt) {
+			int s = queue[qh++];
+			List<Integer> o = out.get(s);
+			if (s != 0) {
+				for(int x: output[fail[s]]) {
+					o.add(x);
+				}
+			}
+			output[s] = toArray(o);
+			for(int i = 0; i != edgeChars[s].length; ++i) {
+				int t = edgeTargets[s][i];
+				fail[t] = s == 0 ? 0 : next(fail[s], edgeChars[s][i]);
+				queue[qt++] = t;
+			}
+		}
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] a = new int[list.size()];
+		for(int i = 0; i != a.length; ++i) {
+			a[i] = list.get(i);
+		}
+		return a;
+	}
+
+	private int next(int state, char ch) {
+		while(true) {
+			if (state == 0) {
+				if (ch < rootNext.length) {
+					return rootNext[ch];
+				}
+			}
+			int i = Arrays.binarySearch(edgeChars[state], ch);
+			if (i >= 0) {
+				return edgeTargets[state][i];
+			}
+			if (state == 0) {
+				return 0;
+			}
+			state = fail[state];
+		}
+	}
+
+	/**
+	 * Scans line and returns ids of patterns which may match it in ascending order.
+	 * Returned array is reused by subsequent scans in same thread, only first
+	 * <code>count</code> entries are valid, where count is first element of array.
+	 * Candidates start from second element.
+	 */
+	public int[] scan(CharSequence line) {
+		ScanState ss = scanState.get();
+		int stamp = ss.nextStamp();
+		int[] cands = ss.candidates;
+		int n = 0;
+		for(int m: unconditional) {
+			cands[++n] = m;
+		}
+		int state = 0;
+		for(int i = 0; i != line.length(); ++i) {
+			state = next(state, line.charAt(i));
+			for(int lit: output[state]) {
+				if (ss.literalStamp[lit] != stamp) {
+					ss.literalStamp[lit] = stamp;
+					for(int m: literalOwners[lit]) {
+						if (ss.hitStamp[m] != stamp) {
+							ss.hitStamp[m] = stamp;
+							ss.hits[m] = 0;
+						}
+						if (++ss.hits[m] == requiredCount[m]) {
+							cands[++n] = m;
+						}
+					}
+				}
+			}
+		}
+		cands[0] = n;
+		if (n > 1) {
+			Arrays.sort(cands, 1, n + 1);
+		}
+		return cands;
+	}
+
+	private class ScanState {
+
+		int stamp;
+		int[] literalStamp = new int[literalCount];
+		int[] hitStamp = new int[requiredCount.length];
+		int[] hits = new int[requiredCount.length];
+		int[] candidates = new int[requiredCount.length + 1];
+
+		int nextStamp() {
+			if (++stamp == 0) {
+				Arrays.fill(literalStamp, 0);
+				Arrays.fill(hitStamp, 0);
+				stamp = 1;
+			}
+			return stamp;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.io.Serializable;
+
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+
+/**
+ * log4j2 front-end of {@link StatisticsEngine}.
+ * <p>
+ * Messages supporting {@link StringBuilderFormattable} (all messages
+ * in garbage free mode) are formatted into per-thread reusable buffer,
+ * so with compiled patterns whole path does not allocate.
+ * Logger, level, thread and context data are exposed to event matchers.
+ * Requires log4j2 2.7 or later.
+ * <pre>
+ * &lt;StatisticsMBean name="stats" config="jmxlogger.xml" matchMode="compiled"/&gt;
+ * </pre>
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+@Plugin(name = "StatisticsMBean", category = "Core", elementType = "appender", printObject = true)
+public class Log4j2StatisticsAppender extends AbstractAppender {
+
+	/** Larger buffers are not kept after use */
+	private static final int MAX_REUSABLE_BUFFER = 4 << 10;
+
+	private static final ThreadLocal<EventView> VIEW = new ThreadLocal<EventView>() {
+		@Override
+		protected EventView initialValue() {
+			return new EventView();
+		}
+	};
+
+	private final StatisticsEngine engine;
+
+	protected Log4j2StatisticsAppender(String name, Filter filter, StatisticsEngine engine) {
+		super(name, filter, (Layout<? extends Serializable>)null, true);
+		this.engine = engine;
+		engine.setName(name);
+	}
+
+	public StatisticsEngine getEngine() {
+		return engine;
+	}
+
+	@Override
+	public void start() {
+		engine.start();
+		super.start();
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		engine.close();
+	}
+
+	@Override
+	public void append(LogEvent event) {
+		EventView view = VIEW.get();
+		view.event = event;
+		try {
+			engine.append(event.getTimeMillis(), view);
+		}
+		finally {
+			view.event = null;
+			if (view.buffer.capacity() > MAX_REUSABLE_BUFFER) {
+				view.buffer = new StringBuilder(256);
+			}
+		}
+	}
+
+	private static class EventView implements LogEventFields {
+
+		LogEvent event;
+		StringBuilder buffer = new StringBuilder(256);
+
+		@Override
+		public String getLoggerName() {
+			return event.getLoggerName();
+		}
+
+		@Override
+		public String getLevel() {
+			return event.getLevel().name();
+		}
+
+		@Override
+		public String getThreadName() {
+			return event.getThreadName();
+		}
+
+		@Override
+		public Object getProperty(String key) {
+			return event.getContextData().getValue(key);
+		}
+
+		@Override
+		public CharSequence getMessage() {
+			Message message = event.getMessage();
+			if (message instanceof StringBuilderFormattable) {
+				buffer.setLength(0);
+				((StringBuilderFormattable)message).formatTo(buffer);
+				return buffer;
+			}
+			else {
+				return message.getFormattedMessage();
+			}
+		}
+	}
+
+	@PluginFactory
+	public static Log4j2StatisticsAppender createAppender(
+			@PluginAttribute("name") String name,
+			@PluginAttribute("config") String config,
+			@PluginAttribute(value = "matchMode", defaultString = StatisticsEngine.MATCH_MODE_JORKA) String matchMode,
+			@PluginAttribute(value = "autoRegister", defaultBoolean = true) boolean autoRegister,
+			@PluginAttribute(value = "async", defaultBoolean = false) boolean async,
+			@PluginAttribute(value = "overloadPolicy", defaultString = StatisticsEngine.OVERLOAD_BLOCK) String overloadPolicy,
+			@PluginAttribute(value = "bucketLimit", defaultInt = -1) int bucketLimit,
+			@PluginAttribute(value = "samplingBudget", defaultLong = 0) long samplingBudget,
+			@PluginAttribute(value = "instrumentation", defaultBoolean = true) boolean instrumentation,
+			@PluginElement("Filter") Filter filter) {
+		if (name == null) {
+			LOGGER.error("No name provided for StatisticsMBean appender");
+			return null;
+		}
+		StatisticsEngine engine = new StatisticsEngine();
+		engine.setMatchMode(matchMode);
+		engine.setAsync(async);
+		engine.setOverloadPolicy(overloadPolicy);
+		if (bucketLimit > 0) {
+			engine.setBucketLimit(bucketLimit);
+		}
+		engine.setSamplingBudget(samplingBudget);
+		engine.setInstrumentation(instrumentation);
+		if (config != null) {
+			engine.setConfig(config);
+		}
+		Log4j2StatisticsAppender appender = new Log4j2StatisticsAppender(name, filter, engine);
+		if (autoRegister) {
+			engine.setAutoRegister(true);
+		}
+		return appender;
+	}
+}
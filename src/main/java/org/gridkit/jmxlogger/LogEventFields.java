@@ -0,0 +1,48 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+/**
+ * Structured fields of logging event, adapts event of particular
+ * logging framework for {@link StatisticsEngine}.
+ * <p>
+ * Instances may be reused by front-end, engine does not retain
+ * references after {@link LogLineSink#append(long, LogEventFields)} returns.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface LogEventFields {
+
+	public String getLoggerName();
+
+	/**
+	 * @return level name, e.g. <code>WARN</code>
+	 */
+	public String getLevel();
+
+	public String getThreadName();
+
+	/**
+	 * @return MDC (context property) value or <code>null</code>
+	 */
+	public Object getProperty(String key);
+
+	/**
+	 * Rendered message, called only if some text pattern is configured.
+	 */
+	public CharSequence getMessage();
+
+}
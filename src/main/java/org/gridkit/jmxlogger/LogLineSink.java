@@ -0,0 +1,42 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+/**
+ * Input of {@link StatisticsEngine}, implemented by engine and used by
+ * logging framework front-ends.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface LogLineSink {
+
+	/**
+	 * Message content is not retained after call returns, so
+	 * front-end may pass reusable buffer.
+	 *
+	 * @param timestamp event time in epoch milliseconds
+	 */
+	public void append(long timestamp, CharSequence message);
+
+	/**
+	 * Event with structured fields, message is rendered only
+	 * if some text pattern is configured.
+	 *
+	 * @param timestamp event time in epoch milliseconds
+	 */
+	public void append(long timestamp, LogEventFields event);
+
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.Arrays;
+
+/**
+ * Layout of log-linear (HDR style) histogram.
+ * <p>
+ * Value range is split into power of two buckets, each bucket is split
+ * into linear sub buckets, so relative error is bounded by configured
+ * number of significant decimal digits. Value to index mapping is O(1)
+ * and counts array size depends only on range and precision.
+ * <p>
+ * Layout is immutable and shared, counts are kept in {@link Recorder}s.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class LogLinearHistogram {
+
+	private final double unit;
+	private final long maxUnits;
+	private final int subBucketHalfCountMagnitude;
+	private final int subBucketHalfCount;
+	private final long subBucketMask;
+	private final int leadingZeroCountBase;
+	private final int length;
+
+	/**
+	 * @param lowest smallest distinguishable value, values below are counted as zero
+	 * @param highest largest tracked value, values above are counted as highest
+	 * @param precision number of significant decimal digits (1 - 5)
+	 */
+	public LogLinearHistogram(double lowest, double highest, int precision) {
+		if (lowest <= 0 || highest <= lowest) {
+			throw new IllegalArgumentException("Bad histogram range [" + lowest + ", " + highest + "]");
+		}
+		if (precision < 1 || precision > 5) {
+			throw new IllegalArgumentException("Histogram precision should be in 1 - 5 range");
+		}
+		unit = lowest;
+		maxUnits = (long)Math.ceil(highest / lowest);
+		if (maxUnits > (Long.MAX_VALUE >> 2)) {
+			throw new IllegalArgumentException("Histogram range is too wide [" + lowest + ", " + highest + "]");
+		}
+
+		long largestSingleUnitResolution = 2 * (long)Math.pow(10, precision);
+		int subBucketCountMagnitude = (int)Math.ceil(Math.log(largestSingleUnitResolution) / Math.log(2));
+		subBucketHalfCountMagnitude = Math.max(subBucketCountMagnitude, 1) - 1;
+		int subBucketCount = 1 << (subBucketHalfCountMagnitude + 1);
+		subBucketHalfCount = subBucketCount / 2;
+		subBucketMask = subBucketCount - 1;
+		leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+		long smallestUntrackable = subBucketCount;
+		int bucketsNeeded = 1;
+		while(smallestUntrackable <= maxUnits) {
+			smallestUntrackable <<= 1;
+			++bucketsNeeded;
+		}
+		length = (bucketsNeeded + 1) * subBucketHalfCount;
+	}
+
+	/**
+	 * @return size of counts array
+	 */
+	public int length() {
+		return length;
+	}
+
+	public int indexOf(double value) {
+		long v;
+		if (!(value > 0)) {
+			// negative and NaN go to zero bucket
+			v = 0;
+		}
+		else {
+			double u = value / unit;
+			v = u >= maxUnits ? maxUnits : (long)u;
+		}
+		int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(v | subBucketMask);
+		int subBucketIndex = (int)(v >>> bucketIndex);
+		return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+	}
+
+	/**
+	 * @return highest value equivalent to index
+	 */
+	public double valueAt(int index) {
+		int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+		int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+		if (bucketIndex < 0) {
+			subBucketIndex -= subBucketHalfCount;
+			bucketIndex = 0;
+		}
+		long lowest = ((long)subBucketIndex) << bucketIndex;
+		long size = 1L << bucketIndex;
+		return Math.min(lowest + size - 1, maxUnits) * unit;
+	}
+
+	/**
+	 * @param counts counts array, may be longer than {@link #length()}, extra elements are ignored
+	 * @param fraction percentile as fraction (e.g. 0.99)
+	 * @return value at percentile or NaN if histogram is empty
+	 */
+	public double percentile(long[] counts, long total, double fraction) {
+		if (total == 0) {
+			return Double.NaN;
+		}
+		int n = Math.min(counts.length, length);
+		long rank = Math.max(1, (long)Math.ceil(fraction * total));
+		long acc = 0;
+		for(int i = 0; i != n; ++i) {
+			acc += counts[i];
+			if (acc >= rank) {
+				return valueAt(i);
+			}
+		}
+		return valueAt(n - 1);
+	}
+
+	public Recorder newRecorder(int slices) {
+		return new Recorder(slices);
+	}
+
+	/**
+	 * Lifetime counts plus ring of time slices for sliding window.
+	 * Rows are allocated on first sample, so recorder of idle bucket
+	 * costs nothing and busy one takes <code>length * (8 + 4 * slices)</code> bytes.
+	 * Not thread safe, guarded by owner.
+	 */
+	class Recorder {
+
+		private long[] lifetime;
+		private final int[][] slices;
+		private final long[] sliceIds;
+
+		Recorder(int sliceCount) {
+			slices = new int[sliceCount][];
+			sliceIds = new long[sliceCount];
+			Arrays.fill(sliceIds, -1);
+		}
+
+		public void record(long sliceId, double value) {
+			int n = indexOf(value);
+			if (lifetime == null) {
+				lifetime = new long[length];
+			}
+			++lifetime[n];
+			int s = (int)(sliceId % slices.length);
+			if (sliceIds[s] != sliceId) {
+				if (slices[s] == null) {
+					slices[s] = new int[length];
+				}
+				else {
+					Arrays.fill(slices[s], 0);
+				}
+				sliceIds[s] = sliceId;
+			}
+			++slices[s][n];
+		}
+
+		/**
+		 * Adds counts of slices newer than <code>firstSliceId</code> to <code>window</code>
+		 * and lifetime counts to <code>total</code>.
+		 */
+		public void collect(long firstSliceId, long[] window, long[] total) {
+			if (lifetime == null) {
+				return;
+			}
+			for(int i = 0; i != length; ++i) {
+				total[i] += lifetime[i];
+			}
+			for(int s = 0; s != slices.length; ++s) {
+				if (sliceIds[s] >= firstSliceId && slices[s] != null) {
+					int[] c = slices[s];
+					for(int i = 0; i != length; ++i) {
+						window[i] += c[i];
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,628 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.ObjectName;
+
+import org.gridkit.jmxlogger.StatisticsEngine.SampleSink;
+
+/**
+ * Offline replay of archived log files through {@link StatisticsEngine}
+ * matching pipeline.
+ * <p>
+ * Files are split into line aligned chunks, each chunk is memory mapped
+ * and processed by a pool of worker threads. Each worker decodes chunk
+ * into its reusable buffer and passes lines to engine as buffer slices,
+ * so no per line strings are created (unless Jorka matchers are used). Event time is taken from
+ * log line itself (see {@link #setTimestampFormat(String, String)}),
+ * samples are aggregated per bucket per time interval. Chunk aggregates
+ * are merged, so result does not depend on number of threads.
+ * <p>
+ * Lines without timestamp (e.g. stack traces) inherit timestamp of previous
+ * line within chunk. Only ASCII compatible encodings are supported, as chunks
+ * are split on <code>'\n'</code> byte.
+ * <p>
+ * Usage:
+ * <pre>
+ * java org.gridkit.jmxlogger.LogReplay -config jmxlogger.xml -out stats.tsv [-interval 1m]
+ *     [-threads N] [-chunk-size 16777216] [-encoding UTF-8]
+ *     [-timestamp-regex REGEX -timestamp-format FORMAT] FILE...
+ * </pre>
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class LogReplay {
+
+	/** Matches log4j ISO8601 date at line start */
+	public static final String DEFAULT_TIMESTAMP_REGEX = "^(\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2},\\d{3})";
+	public static final String DEFAULT_TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss,SSS";
+
+	private static final long DEFAULT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+	private static final int DEFAULT_CHUNK_SIZE = 16 << 20;
+	private static final int BOUNDARY_SCAN_SIZE = 4 << 10;
+	/** Initial size of per worker decoding buffer, grows to fit longest line */
+	private static final int DECODE_BUFFER_SIZE = 64 << 10;
+
+	private final StatisticsEngine engine;
+
+	private long interval = DEFAULT_INTERVAL;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private Charset charset = Charset.forName("UTF-8");
+	private String timestampRegex = DEFAULT_TIMESTAMP_REGEX;
+	private String timestampFormat = DEFAULT_TIMESTAMP_FORMAT;
+
+	/** interval start -> bucket name -> aggregate */
+	private final TreeMap<Long, Map<ObjectName, Aggregate>> result = new TreeMap<Long, Map<ObjectName, Aggregate>>();
+	private long processedLines;
+	private long skippedLines;
+
+	/**
+	 * @param engine configured engine, only its matchers and reporters are used.
+	 *        Engine is not modified, its sampling, time budget and self instrumentation
+	 *        do not apply to replay, so live engine could be used.
+	 */
+	public LogReplay(StatisticsEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * @param interval length of aggregation interval in milliseconds
+	 */
+	public void setInterval(long interval) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Interval should be positive");
+		}
+		this.interval = interval;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size should be positive");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * @param regex regular expression, first group of which captures timestamp text
+	 * @param format {@link SimpleDateFormat} pattern for captured text
+	 */
+	public void setTimestampFormat(String regex, String format) {
+		Pattern.compile(regex);
+		new SimpleDateFormat(format);
+		this.timestampRegex = regex;
+		this.timestampFormat = format;
+	}
+
+	public long getProcessedLines() {
+		return processedLines;
+	}
+
+	/**
+	 * @return lines ignored because no timestamp was seen before them in chunk
+	 */
+	public long getSkippedLines() {
+		return skippedLines;
+	}
+
+	/**
+	 * Processes files and merges their statistics into result.
+	 */
+	public void replay(List<File> files) throws IOException, InterruptedException {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		for(File file: files) {
+			split(file, chunks);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			final AtomicInteger counter = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LogReplay-" + counter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final ThreadLocal<ChunkScanner> scanners = new ThreadLocal<ChunkScanner>() {
+			@Override
+			protected ChunkScanner initialValue() {
+				return new ChunkScanner();
+			}
+		};
+		try {
+			List<Future<ChunkResult>> futures = new ArrayList<Future<ChunkResult>>();
+			for(final Chunk chunk: chunks) {
+				futures.add(executor.submit(new Callable<ChunkResult>() {
+					@Override
+					public ChunkResult call() throws IOException {
+						return process(chunk, scanners.get());
+					}
+				}));
+			}
+			for(Future<ChunkResult> f: futures) {
+				try {
+					merge(f.get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException) {
+						throw (IOException)cause;
+					}
+					throw new RuntimeException(cause);
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Writes tab separated table, one row per bucket per interval, ordered by time.
+	 */
+	public void write(Writer writer) {
+		PrintWriter pw = new PrintWriter(writer);
+		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		pw.println("Time\tName\tCount\tRate\tAverage\tStdDev\tMin\tMax\tP50\tP90\tP99\tP999");
+		for(Map.Entry<Long, Map<ObjectName, Aggregate>> e: result.entrySet()) {
+			String time = fmt.format(new Date(e.getKey()));
+			TreeMap<String, Aggregate> sorted = new TreeMap<String, Aggregate>();
+			for(Map.Entry<ObjectName, Aggregate> b: e.getValue().entrySet()) {
+				sorted.put(b.getKey().toString(), b.getValue());
+			}
+			for(Map.Entry<String, Aggregate> b: sorted.entrySet()) {
+				Aggregate a = b.getValue();
+				pw.print(time);
+				pw.print('\t');
+				pw.print(b.getKey());
+				pw.print('\t');
+				pw.print(a.weight);
+				pw.print('\t');
+				pw.print(a.weight * 1000 / interval);
+				pw.print('\t');
+				pw.print(a.mean);
+				pw.print('\t');
+				pw.print(a.stdDev());
+				pw.print('\t');
+				pw.print(a.min);
+				pw.print('\t');
+				pw.print(a.max);
+				pw.print('\t');
+				pw.print(a.percentile(0.5));
+				pw.print('\t');
+				pw.print(a.percentile(0.9));
+				pw.print('\t');
+				pw.print(a.percentile(0.99));
+				pw.print('\t');
+				pw.print(a.percentile(0.999));
+				pw.println();
+			}
+		}
+		pw.flush();
+	}
+
+	/**
+	 * @return aggregates by interval start, by bucket name
+	 */
+	Map<Long, Map<ObjectName, Aggregate>> getResult() {
+		return result;
+	}
+
+	/**
+	 * Splits file into chunks, chunk boundaries are moved forward to nearest line start.
+	 */
+	void split(File file, List<Chunk> chunks) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			long size = ch.size();
+			ByteBuffer buf = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+			long start = 0;
+			while(start < size) {
+				long end = start + chunkSize;
+				if (end >= size) {
+					end = size;
+				}
+				else {
+					end = nextLineStart(ch, end, size, buf);
+				}
+				chunks.add(new Chunk(file, start, end));
+				start = end;
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static long nextLineStart(FileChannel ch, long pos, long size, ByteBuffer buf) throws IOException {
+		// boundary is fine if previous byte is line end
+		long p = pos - 1;
+		while(p < size) {
+			buf.clear();
+			int n = ch.read(buf, p);
+			if (n <= 0) {
+				break;
+			}
+			for(int i = 0; i != n; ++i) {
+				if (buf.get(i) == '\n') {
+					return p + i + 1;
+				}
+			}
+			p += n;
+		}
+		return size;
+	}
+
+	/**
+	 * Decodes mapped chunk window by window into scanner's reusable buffer,
+	 * lines are passed to engine as buffer slices without copying.
+	 */
+	ChunkResult process(Chunk chunk, ChunkScanner scanner) throws IOException {
+		ChunkResult cr = new ChunkResult();
+		scanner.reset();
+		RandomAccessFile raf = new RandomAccessFile(chunk.file, "r");
+		try {
+			MappedByteBuffer bytes = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+			CharsetDecoder decoder = scanner.decoder;
+			while(true) {
+				CoderResult r = decoder.decode(bytes, scanner.chars, true);
+				boolean eof = r.isUnderflow();
+				if (eof) {
+					decoder.flush(scanner.chars);
+				}
+				scanner.chars.flip();
+				scanner.scan(eof, cr);
+				if (eof) {
+					break;
+				}
+			}
+		}
+		finally {
+			raf.close();
+		}
+		return cr;
+	}
+
+	private void merge(ChunkResult cr) {
+		processedLines += cr.processed;
+		skippedLines += cr.skipped;
+		for(Map.Entry<Long, Map<ObjectName, Aggregate>> e: cr.intervals.entrySet()) {
+			Map<ObjectName, Aggregate> target = result.get(e.getKey());
+			if (target == null) {
+				result.put(e.getKey(), e.getValue());
+				continue;
+			}
+			for(Map.Entry<ObjectName, Aggregate> b: e.getValue().entrySet()) {
+				Aggregate a = target.get(b.getKey());
+				if (a == null) {
+					target.put(b.getKey(), b.getValue());
+				}
+				else {
+					a.merge(b.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Per worker decoding state, reused across chunks.
+	 */
+	class ChunkScanner {
+
+		final CharsetDecoder decoder = charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer chars = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+		final Matcher tm = Pattern.compile(timestampRegex).matcher("");
+		final SimpleDateFormat fmt = new SimpleDateFormat(timestampFormat);
+		String lastTsText;
+		long ts;
+
+		void reset() {
+			decoder.reset();
+			chars.clear();
+			lastTsText = null;
+			ts = Long.MIN_VALUE;
+		}
+
+		/**
+		 * Processes complete lines of flipped buffer, leaves incomplete tail
+		 * at buffer start ready for next decoding pass.
+		 */
+		void scan(boolean eof, ChunkResult cr) {
+			char[] buf = chars.array();
+			int len = chars.limit();
+			int lineStart = 0;
+			for(int i = 0; i <= len; ++i) {
+				if (i == len ? eof && i > lineStart : buf[i] == '\n') {
+					int lineEnd = i > lineStart && buf[i - 1] == '\r' ? i - 1 : i;
+					chars.limit(lineEnd).position(lineStart);
+					processLine(chars, cr);
+					chars.limit(len);
+					lineStart = i + 1;
+				}
+			}
+			if (eof) {
+				chars.clear();
+			}
+			else {
+				chars.limit(len).position(Math.min(lineStart, len));
+				chars.compact();
+				if (!chars.hasRemaining()) {
+					// line is longer than buffer
+					CharBuffer cb = CharBuffer.allocate(2 * chars.capacity());
+					chars.flip();
+					cb.put(chars);
+					chars = cb;
+				}
+			}
+		}
+
+		private void processLine(CharBuffer line, ChunkResult cr) {
+			tm.reset(line);
+			if (tm.find()) {
+				int s = tm.start(1);
+				int e = tm.end(1);
+				if (!regionEquals(lastTsText, line, s, e)) {
+					String tsText = line.subSequence(s, e).toString();
+					try {
+						ts = fmt.parse(tsText).getTime();
+						lastTsText = tsText;
+					}
+					catch(ParseException ex) {
+						// keep previous timestamp
+					}
+				}
+			}
+			if (ts == Long.MIN_VALUE) {
+				++cr.skipped;
+			}
+			else {
+				++cr.processed;
+				engine.processLogLine(ts, line, cr);
+			}
+		}
+
+		private boolean regionEquals(String text, CharSequence seq, int from, int to) {
+			if (text == null || text.length() != to - from) {
+				return false;
+			}
+			for(int i = 0; i != text.length(); ++i) {
+				if (text.charAt(i) != seq.charAt(from + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	static class Chunk {
+
+		final File file;
+		final long start;
+		final long end;
+
+		Chunk(File file, long start, long end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public String toString() {
+			return file.getName() + "[" + start + ", " + end + ")";
+		}
+	}
+
+	/**
+	 * Aggregates of single chunk, confined to worker thread.
+	 */
+	class ChunkResult implements SampleSink {
+
+		final Map<Long, Map<ObjectName, Aggregate>> intervals = new HashMap<Long, Map<ObjectName, Aggregate>>();
+		long processed;
+		long skipped;
+
+		@Override
+		public void sample(long timestamp, ObjectName name, StatsBucket.Spec spec, double value, double weight) {
+			Long slot = timestamp - (timestamp % interval + interval) % interval;
+			Map<ObjectName, Aggregate> buckets = intervals.get(slot);
+			if (buckets == null) {
+				buckets = new HashMap<ObjectName, Aggregate>();
+				intervals.put(slot, buckets);
+			}
+			Aggregate a = buckets.get(name);
+			if (a == null) {
+				a = new Aggregate(spec.histogram);
+				buckets.put(name, a);
+			}
+			a.add(value, weight);
+		}
+	}
+
+	/**
+	 * Mergeable summary of samples (weighted Welford plus optional histogram).
+	 */
+	static class Aggregate {
+
+		final LogLinearHistogram histogram;
+		final long[] counts;
+		long samples;
+		double weight;
+		double mean;
+		double m2;
+		double min = Double.NaN;
+		double max = Double.NaN;
+
+		Aggregate(LogLinearHistogram histogram) {
+			this.histogram = histogram;
+			this.counts = histogram == null ? null : new long[histogram.length()];
+		}
+
+		void add(double value, double w) {
+			++samples;
+			weight += w;
+			double delta = value - mean;
+			mean += delta * w / weight;
+			m2 += w * delta * (value - mean);
+			min = Double.isNaN(min) ? value : Math.min(min, value);
+			max = Double.isNaN(max) ? value : Math.max(max, value);
+			if (counts != null) {
+				++counts[histogram.indexOf(value)];
+			}
+		}
+
+		void merge(Aggregate other) {
+			if (other.samples == 0) {
+				return;
+			}
+			double w = weight + other.weight;
+			double delta = other.mean - mean;
+			m2 += other.m2 + delta * delta * weight * other.weight / w;
+			mean += delta * other.weight / w;
+			weight = w;
+			samples += other.samples;
+			min = Double.isNaN(min) ? other.min : Math.min(min, other.min);
+			max = Double.isNaN(max) ? other.max : Math.max(max, other.max);
+			if (counts != null && other.counts != null) {
+				for(int i = 0; i != counts.length; ++i) {
+					counts[i] += other.counts[i];
+				}
+			}
+		}
+
+		double stdDev() {
+			return weight > 0 ? Math.sqrt(m2 / weight) : Double.NaN;
+		}
+
+		double percentile(double fraction) {
+			return counts == null ? Double.NaN : histogram.percentile(counts, samples, fraction);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String regex = DEFAULT_TIMESTAMP_REGEX;
+		String format = DEFAULT_TIMESTAMP_FORMAT;
+		List<File> files = new ArrayList<File>();
+		Map<String, String> options = new HashMap<String, String>();
+		for(int i = 0; i < args.length; ++i) {
+			if (args[i].startsWith("-")) {
+				if (i + 1 == args.length) {
+					usage("Missing value for " + args[i]);
+				}
+				options.put(args[i], args[++i]);
+			}
+			else {
+				files.add(new File(args[i]));
+			}
+		}
+		String config = options.remove("-config");
+		String out = options.remove("-out");
+		if (config == null || out == null || files.isEmpty()) {
+			usage(null);
+		}
+		StatisticsEngine engine = new StatisticsEngine();
+		engine.setConfig(config);
+		if (options.containsKey("-match-mode")) {
+			engine.setMatchMode(options.remove("-match-mode"));
+		}
+		LogReplay replay = new LogReplay(engine);
+		if (options.containsKey("-interval")) {
+			replay.setInterval(TimeIntervalParser.toMillis(options.remove("-interval")));
+		}
+		if (options.containsKey("-threads")) {
+			replay.setThreads(Integer.parseInt(options.remove("-threads")));
+		}
+		if (options.containsKey("-chunk-size")) {
+			replay.setChunkSize(Integer.parseInt(options.remove("-chunk-size")));
+		}
+		if (options.containsKey("-encoding")) {
+			replay.setCharset(Charset.forName(options.remove("-encoding")));
+		}
+		if (options.containsKey("-timestamp-regex")) {
+			regex = options.remove("-timestamp-regex");
+		}
+		if (options.containsKey("-timestamp-format")) {
+			format = options.remove("-timestamp-format");
+		}
+		if (!options.isEmpty()) {
+			usage("Unknown options " + options.keySet());
+		}
+		replay.setTimestampFormat(regex, format);
+
+		long start = System.nanoTime();
+		replay.replay(files);
+		Writer writer = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+		try {
+			replay.write(writer);
+		}
+		finally {
+			writer.close();
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		System.out.println("Processed " + replay.getProcessedLines() + " lines (" + replay.getSkippedLines() + " skipped) in " + elapsed + "ms");
+	}
+
+	private static void usage(String error) {
+		if (error != null) {
+			System.err.println(error);
+		}
+		System.err.println("Usage: LogReplay -config CONFIG -out FILE [-interval 1m] [-threads N] [-chunk-size BYTES] [-encoding UTF-8]");
+		System.err.println("           [-match-mode jorka|compiled] [-timestamp-regex REGEX] [-timestamp-format FORMAT] FILE...");
+		System.exit(1);
+	}
+}
@@ -0,0 +1,414 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Follows log files of other processes and feeds their lines
+ * to {@link StatisticsEngine}, so statistics could be
+ * collected without reconfiguring (or even for non Java) process.
+ * <p>
+ * Files are polled by single thread using {@link FileChannel} reads
+ * into reusable direct buffer. Lines are decoded into reusable char
+ * buffer and matched in place, {@link String} is created only
+ * for patterns handled by Jorka.
+ * <p>
+ * Rotation (path now points to another file) is detected once old file
+ * is drained, either by size of path differing from open file or by
+ * modification time of path changing while open file has not grown.
+ * Truncation is detected by file size shrinking below read position.
+ * In both cases file is read from start.
+ * <p>
+ * Each file has its own decoder, so stateful charsets are decoded
+ * correctly across reads.
+ * <p>
+ * Usage:
+ * <pre>
+ * java org.gridkit.jmxlogger.LogTailer -config jmxlogger.xml [-poll 500ms] [-encoding UTF-8] [-from-start] FILE...
+ * </pre>
+ * MBeans are published to platform MBean server.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class LogTailer {
+
+	private static final Logger LOGGER = LogManager.getLogger(LogTailer.class);
+
+	private static final long DEFAULT_POLL_PERIOD = 500;
+	private static final int DEFAULT_BUFFER_SIZE = 64 << 10;
+	private static final int DEFAULT_MAX_LINE_LENGTH = 64 << 10;
+
+	private final StatisticsEngine engine;
+	private final List<TailedFile> files = new ArrayList<TailedFile>();
+
+	private long pollPeriod = DEFAULT_POLL_PERIOD;
+	private Charset charset = Charset.forName("UTF-8");
+	private int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+	private boolean fromStart = false;
+
+	private final ByteBuffer bytes;
+	private final CharBuffer chars;
+
+	private ScheduledExecutorService executor;
+	private ScheduledFuture<?> future;
+
+	public LogTailer(StatisticsEngine engine) {
+		this(engine, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param bufferSize size of read buffer in bytes
+	 */
+	public LogTailer(StatisticsEngine engine, int bufferSize) {
+		this.engine = engine;
+		this.bytes = ByteBuffer.allocateDirect(bufferSize);
+		this.chars = CharBuffer.allocate(bufferSize);
+	}
+
+	public synchronized void addFile(File file) {
+		files.add(new TailedFile(file));
+	}
+
+	/**
+	 * @param period poll period in milliseconds, default is 500
+	 */
+	public void setPollPeriod(long period) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("Poll period should be positive");
+		}
+		this.pollPeriod = period;
+	}
+
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * Longer lines are truncated.
+	 */
+	public void setMaxLineLength(int maxLineLength) {
+		this.maxLineLength = maxLineLength;
+	}
+
+	/**
+	 * If <code>true</code>, existing content of files is processed, otherwise only appended lines.
+	 */
+	public void setFromStart(boolean fromStart) {
+		this.fromStart = fromStart;
+	}
+
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LogTailer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		future = executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		}, 0, pollPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		if (executor != null) {
+			future.cancel(false);
+			executor.shutdown();
+			try {
+				executor.awaitTermination(pollPeriod, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			executor = null;
+		}
+		for(TailedFile tf: files) {
+			tf.close();
+		}
+	}
+
+	/**
+	 * Reads all new content of all files. Called by poll thread, exposed for testing.
+	 */
+	synchronized void poll() {
+		for(TailedFile tf: files) {
+			try {
+				tf.poll();
+			}
+			catch(IOException e) {
+				LOGGER.debug("Failed to read " + tf.file, e);
+				tf.close();
+			}
+		}
+	}
+
+	private class TailedFile {
+
+		final File file;
+		RandomAccessFile raf;
+		FileChannel channel;
+		long position;
+		/** File was opened or known to be absent, so further content is read from start */
+		boolean seen;
+		/** Modification time of path and size of open file, as of last poll */
+		long lastModified;
+		long lastSize;
+		/** Incomplete last line */
+		final StringBuilder partial = new StringBuilder();
+		CharsetDecoder decoder;
+		/** Bytes of incomplete multibyte character, grows if needed */
+		ByteBuffer leftover = ByteBuffer.allocate(16);
+
+		TailedFile(File file) {
+			this.file = file;
+		}
+
+		void poll() throws IOException {
+			if (channel == null) {
+				if (!file.isFile()) {
+					// file created later is new content
+					seen = true;
+					return;
+				}
+				open(seen || fromStart ? 0 : file.length());
+			}
+			drain();
+			if (!file.isFile()) {
+				// rotated, new file is not created yet
+				return;
+			}
+			long openSize = channel.size();
+			// modification time is taken after size of open file, so concurrent append is not mistaken for rotation
+			long pathModified = file.lastModified();
+			// path length is taken before size of open file, so concurrent append is not mistaken for rotation
+			long pathLength = file.length();
+			boolean replaced = pathModified != lastModified && openSize == lastSize;
+			lastModified = pathModified;
+			lastSize = openSize;
+			if (pathLength < position || channel.size() < pathLength || replaced) {
+				// truncated or path points to new file, old one is fully read now
+				flushPartial();
+				close();
+				open(0);
+				drain();
+			}
+		}
+
+		private void open(long from) throws IOException {
+			raf = new RandomAccessFile(file, "r");
+			channel = raf.getChannel();
+			position = Math.min(from, channel.size());
+			lastSize = channel.size();
+			lastModified = file.lastModified();
+			seen = true;
+			partial.setLength(0);
+			decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			int maxBytes = charset.canEncode() ? (int)Math.ceil(charset.newEncoder().maxBytesPerChar()) : 0;
+			if (leftover.capacity() < 4 * maxBytes) {
+				leftover = ByteBuffer.allocate(4 * maxBytes);
+			}
+			leftover.clear();
+		}
+
+		void close() {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					// ignore
+				}
+				raf = null;
+				channel = null;
+			}
+		}
+
+		private void drain() throws IOException {
+			while(true) {
+				bytes.clear();
+				if (leftover.position() > 0) {
+					leftover.flip();
+					bytes.put(leftover);
+					leftover.clear();
+				}
+				int n = channel.read(bytes, position);
+				if (n <= 0) {
+					if (bytes.position() > 0) {
+						bytes.flip();
+						keepLeftover();
+					}
+					return;
+				}
+				position += n;
+				bytes.flip();
+				while(true) {
+					chars.clear();
+					CoderResult cr = decoder.decode(bytes, chars, false);
+					chars.flip();
+					split(System.currentTimeMillis());
+					if (!cr.isOverflow()) {
+						break;
+					}
+				}
+				if (bytes.hasRemaining()) {
+					keepLeftover();
+				}
+			}
+		}
+
+		/**
+		 * Saves undecoded remainder of read buffer.
+		 */
+		private void keepLeftover() {
+			if (leftover.remaining() < bytes.remaining()) {
+				ByteBuffer bb = ByteBuffer.allocate(leftover.position() + bytes.remaining());
+				leftover.flip();
+				bb.put(leftover);
+				leftover = bb;
+			}
+			leftover.put(bytes);
+		}
+
+		private void split(long timestamp) {
+			char[] buf = chars.array();
+			int len = chars.limit();
+			int lineStart = 0;
+			for(int i = 0; i != len; ++i) {
+				if (buf[i] == '\n') {
+					int lineEnd = i > lineStart && buf[i - 1] == '\r' ? i - 1 : i;
+					if (partial.length() == 0) {
+						chars.limit(lineEnd).position(lineStart);
+						engine.processLogLine(timestamp, chars);
+						chars.limit(len);
+					}
+					else {
+						appendPartial(buf, lineStart, lineEnd);
+						int pl = partial.length();
+						if (pl > 0 && partial.charAt(pl - 1) == '\r') {
+							partial.setLength(pl - 1);
+						}
+						engine.processLogLine(timestamp, partial);
+						partial.setLength(0);
+					}
+					lineStart = i + 1;
+				}
+			}
+			appendPartial(buf, lineStart, len);
+		}
+
+		private void appendPartial(char[] buf, int from, int to) {
+			int n = Math.min(to - from, maxLineLength - partial.length());
+			if (n > 0) {
+				partial.append(buf, from, n);
+			}
+		}
+
+		private void flushPartial() {
+			if (partial.length() > 0) {
+				engine.processLogLine(System.currentTimeMillis(), partial);
+				partial.setLength(0);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String config = null;
+		String encoding = null;
+		long poll = DEFAULT_POLL_PERIOD;
+		boolean fromStart = false;
+		List<File> files = new ArrayList<File>();
+		for(int i = 0; i < args.length; ++i) {
+			if ("-from-start".equals(args[i])) {
+				fromStart = true;
+			}
+			else if (args[i].startsWith("-")) {
+				if (i + 1 == args.length) {
+					usage("Missing value for " + args[i]);
+				}
+				String opt = args[i];
+				String val = args[++i];
+				if ("-config".equals(opt)) {
+					config = val;
+				}
+				else if ("-poll".equals(opt)) {
+					poll = TimeIntervalParser.toMillis(val);
+				}
+				else if ("-encoding".equals(opt)) {
+					encoding = val;
+				}
+				else {
+					usage("Unknown option " + opt);
+				}
+			}
+			else {
+				files.add(new File(args[i]));
+			}
+		}
+		if (config == null || files.isEmpty()) {
+			usage(null);
+		}
+		StatisticsEngine engine = new StatisticsEngine();
+		engine.setConfig(config);
+		engine.publishJmx(new PlatformMBeanPublisher());
+		LogTailer tailer = new LogTailer(engine);
+		tailer.setPollPeriod(poll);
+		tailer.setFromStart(fromStart);
+		if (encoding != null) {
+			tailer.setCharset(Charset.forName(encoding));
+		}
+		for(File file: files) {
+			tailer.addFile(file);
+		}
+		tailer.start();
+		// poll thread is daemon
+		Thread.sleep(Long.MAX_VALUE);
+	}
+
+	private static void usage(String error) {
+		if (error != null) {
+			System.err.println(error);
+		}
+		System.err.println("Usage: LogTailer -config CONFIG [-poll 500ms] [-encoding UTF-8] [-from-start] FILE...");
+		System.exit(1);
+	}
+}
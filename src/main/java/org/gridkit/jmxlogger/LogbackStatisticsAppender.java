@@ -0,0 +1,112 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+/**
+ * Logback front-end of {@link StatisticsEngine}.
+ * <p>
+ * Engine is configured as nested component.
+ * <pre>
+ * &lt;appender name="stats" class="org.gridkit.jmxlogger.LogbackStatisticsAppender"&gt;
+ *   &lt;engine&gt;
+ *     &lt;config&gt;jmxlogger.xml&lt;/config&gt;
+ *     &lt;autoRegister&gt;true&lt;/autoRegister&gt;
+ *   &lt;/engine&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class LogbackStatisticsAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+	private StatisticsEngine engine = new StatisticsEngine();
+
+	private static final ThreadLocal<EventView> VIEW = new ThreadLocal<EventView>() {
+		@Override
+		protected EventView initialValue() {
+			return new EventView();
+		}
+	};
+
+	public StatisticsEngine getEngine() {
+		return engine;
+	}
+
+	public void setEngine(StatisticsEngine engine) {
+		this.engine = engine;
+	}
+
+	@Override
+	public void start() {
+		if (engine.getName() == null) {
+			engine.setName(getName());
+		}
+		engine.start();
+		super.start();
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		engine.close();
+	}
+
+	@Override
+	protected void append(ILoggingEvent event) {
+		EventView view = VIEW.get();
+		view.event = event;
+		try {
+			engine.append(event.getTimeStamp(), view);
+		}
+		finally {
+			view.event = null;
+		}
+	}
+
+	private static class EventView implements LogEventFields {
+
+		ILoggingEvent event;
+
+		@Override
+		public String getLoggerName() {
+			return event.getLoggerName();
+		}
+
+		@Override
+		public String getLevel() {
+			return event.getLevel().toString();
+		}
+
+		@Override
+		public String getThreadName() {
+			return event.getThreadName();
+		}
+
+		@Override
+		public Object getProperty(String key) {
+			return event.getMDCPropertyMap().get(key);
+		}
+
+		@Override
+		public CharSequence getMessage() {
+			// formatted message is cached by event, so other appenders share it
+			return event.getFormattedMessage();
+		}
+	}
+}
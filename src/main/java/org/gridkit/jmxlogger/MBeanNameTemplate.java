@@ -0,0 +1,199 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Precompiled MBean name pattern (literal segments and variable slots)
+ * with bounded cache of instantiated {@link ObjectName}s.
+ * <p>
+ * Cache is direct mapped and keyed by values of variables used in name,
+ * lookup compares captured regions in place, so steady state requires
+ * neither string building nor {@link ObjectName} parsing.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class MBeanNameTemplate {
+
+	private final String pattern;
+	/** Literal segments, one more than slots */
+	private final String[] literals;
+	/** Slots of {@link ExtractionRecord} to be inserted between literals */
+	private final int[] slots;
+
+	private final ResolvedName[] cache;
+	private final int mask;
+
+	/**
+	 * @param vars variable names, position in array is a slot in {@link ExtractionRecord}
+	 */
+	public MBeanNameTemplate(String pattern, String[] vars, int cacheSize) {
+		this.pattern = pattern;
+		List<String> lits = new ArrayList<String>();
+		List<Integer> sl = new ArrayList<Integer>();
+		StringBuilder lit = new StringBuilder();
+		int n = 0;
+		while(true) {
+			int s = pattern.indexOf("%{", n);
+			int e = s < 0 ? -1 : pattern.indexOf('}', s);
+			if (e < 0) {
+				lit.append(pattern, n, pattern.length());
+				break;
+			}
+			String var = pattern.substring(s + 2, e);
+			int slot = -1;
+			for(int i = 0; i != vars.length; ++i) {
+				if (vars[i].equals(var)) {
+					slot = i;
+					break;
+				}
+			}
+			if (slot < 0) {
+				// not a variable, kept as is
+				lit.append(pattern, n, e + 1);
+			}
+			else {
+				lit.append(pattern, n, s);
+				lits.add(lit.toString());
+				lit.setLength(0);
+				sl.add(slot);
+			}
+			n = e + 1;
+		}
+		lits.add(lit.toString());
+
+		literals = lits.toArray(new String[lits.size()]);
+		slots = new int[sl.size()];
+		for(int i = 0; i != slots.length; ++i) {
+			slots[i] = sl.get(i);
+		}
+
+		int size = slots.length == 0 ? 1 : Integer.highestOneBit(Math.max(1, cacheSize - 1)) << 1;
+		cache = new ResolvedName[size];
+		mask = size - 1;
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return name with every variable replaced by <code>value</code> or <code>null</code>
+	 *         if template has no variables or result is not a valid {@link ObjectName}
+	 */
+	public ObjectName fill(String value) {
+		if (slots.length == 0) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i != slots.length; ++i) {
+			sb.append(literals[i]).append(value);
+		}
+		sb.append(literals[slots.length]);
+		try {
+			return new ObjectName(sb.toString());
+		} catch (MalformedObjectNameException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return cache entry, its name is <code>null</code> if result is not a valid {@link ObjectName}
+	 */
+	public ResolvedName resolve(ExtractionRecord rec) {
+		int hash = hash(rec);
+		int n = hash & mask;
+		ResolvedName entry = cache[n];
+		if (entry != null && entry.hash == hash && matches(entry, rec)) {
+			return entry;
+		}
+		entry = instantiate(hash, rec);
+		cache[n] = entry;
+		return entry;
+	}
+
+	private int hash(ExtractionRecord rec) {
+		int h = 0;
+		for(int slot: slots) {
+			int len = rec.length(slot);
+			for(int i = 0; i != len; ++i) {
+				h = 31 * h + rec.charAt(slot, i);
+			}
+			h = 31 * h + len;
+		}
+		h ^= (h >>> 16);
+		return h;
+	}
+
+	private boolean matches(ResolvedName entry, ExtractionRecord rec) {
+		for(int i = 0; i != slots.length; ++i) {
+			String v = entry.values[i];
+			int slot = slots[i];
+			int len = rec.length(slot);
+			if (v.length() != len) {
+				return false;
+			}
+			for(int j = 0; j != len; ++j) {
+				if (v.charAt(j) != rec.charAt(slot, j)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private ResolvedName instantiate(int hash, ExtractionRecord rec) {
+		String[] values = new String[slots.length];
+		StringBuilder sb = new StringBuilder(pattern.length() + 16);
+		for(int i = 0; i != slots.length; ++i) {
+			values[i] = rec.toString(slots[i]);
+			sb.append(literals[i]).append(values[i]);
+		}
+		sb.append(literals[slots.length]);
+		ObjectName name;
+		try {
+			name = new ObjectName(sb.toString());
+		} catch (MalformedObjectNameException e) {
+			name = null;
+		}
+		return new ResolvedName(hash, values, name);
+	}
+
+	/**
+	 * Key fields are final, so entry could be safely shared between threads via plain array.
+	 */
+	static class ResolvedName {
+
+		final int hash;
+		final String[] values;
+		final ObjectName name;
+		/** Last bucket used for this name, may be already evicted */
+		volatile StatsBucket bucket;
+		/** Racy count of samples sent to cached overflow bucket */
+		int overflowHits;
+
+		ResolvedName(int hash, String[] values, ObjectName name) {
+			this.hash = hash;
+			this.values = values;
+			this.name = name;
+		}
+	}
+}
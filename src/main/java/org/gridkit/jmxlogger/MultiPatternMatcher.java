@@ -0,0 +1,136 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import org.gridkit.jmxlogger.GrokCompiler.GrokPattern;
+
+/**
+ * Matches line against all configured patterns at once.
+ * <p>
+ * Line is scanned once by {@link LiteralIndex}, so only patterns with all
+ * their literals present are considered. Compiled patterns are verified
+ * using per-thread reusable {@link Matcher}s, which are left positioned
+ * at match and expose capture group offsets. Patterns which could not
+ * be compiled are reported as unverified and should be handled by caller.
+ * <p>
+ * Cost per line depends on line length and number of candidates,
+ * not on total number of patterns.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class MultiPatternMatcher {
+
+	private final GrokPattern[] patterns;
+	private final LiteralIndex literals;
+
+	private final ThreadLocal<MatchSet> matchSet = new ThreadLocal<MatchSet>() {
+		@Override
+		protected MatchSet initialValue() {
+			return new MatchSet();
+		}
+	};
+
+	/**
+	 * @param patterns compiled patterns, <code>null</code> elements are not verified by this matcher
+	 * @param literals required literals for each pattern
+	 */
+	public MultiPatternMatcher(GrokPattern[] patterns, List<List<String>> literals) {
+		this.patterns = patterns;
+		this.literals = new LiteralIndex(literals);
+	}
+
+	public int size() {
+		return patterns.length;
+	}
+
+	public boolean isCompiled(int pattern) {
+		return patterns[pattern] != null;
+	}
+
+	public GrokPattern getPattern(int pattern) {
+		return patterns[pattern];
+	}
+
+	/**
+	 * Result is reused by subsequent calls in same thread.
+	 */
+	public MatchSet match(CharSequence line) {
+		MatchSet ms = matchSet.get();
+		ms.count = 0;
+		int[] cands = literals.scan(line);
+		int n = cands[0];
+		for(int i = 1; i <= n; ++i) {
+			int p = cands[i];
+			if (patterns[p] == null) {
+				ms.add(p);
+			}
+			else {
+				Matcher m = ms.matchers[p];
+				if (m == null) {
+					m = ms.matchers[p] = patterns[p].regex.matcher(line);
+				}
+				else {
+					m.reset(line);
+				}
+				if (m.find()) {
+					ms.add(p);
+				}
+			}
+		}
+		return ms;
+	}
+
+	class MatchSet {
+
+		private int[] ids = new int[patterns.length];
+		private int count;
+		private Matcher[] matchers = new Matcher[patterns.length];
+
+		private void add(int pattern) {
+			ids[count++] = pattern;
+		}
+
+		/**
+		 * @return number of matched or unverified patterns
+		 */
+		public int size() {
+			return count;
+		}
+
+		public int patternAt(int n) {
+			return ids[n];
+		}
+
+		/**
+		 * @return matcher positioned at match or <code>null</code> if pattern is not compiled
+		 */
+		public Matcher matcher(int pattern) {
+			return patterns[pattern] == null ? null : matchers[pattern];
+		}
+
+		public List<Integer> toList() {
+			List<Integer> list = new ArrayList<Integer>();
+			for(int i = 0; i != count; ++i) {
+				list.add(ids[i]);
+			}
+			return list;
+		}
+	}
+}
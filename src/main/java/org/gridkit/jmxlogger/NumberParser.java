@@ -0,0 +1,131 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.math.BigInteger;
+
+/**
+ * Parses numbers directly from {@link CharSequence} region without
+ * creating intermediate strings.
+ * <p>
+ * Integers, plain decimals and <code>0x</code> prefixed hex integers are
+ * handled in place. Decimals are converted exactly as long as mantissa
+ * fits into 15 digits (both mantissa and power of ten are exact doubles,
+ * so single division is correctly rounded). Everything else, e.g.
+ * exponent forms, is delegated to {@link Double#parseDouble(String)}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class NumberParser {
+
+	private static final int MAX_EXACT_DIGITS = 15;
+
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for(int i = 1; i != POW10.length; ++i) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	public static double parseDouble(CharSequence text, int from, int to) {
+		if (from >= to) {
+			throw new NumberFormatException("empty String");
+		}
+		int n = from;
+		boolean negative = false;
+		char ch = text.charAt(n);
+		if (ch == '-' || ch == '+') {
+			negative = ch == '-';
+			++n;
+		}
+		if (n + 1 < to && text.charAt(n) == '0' && (text.charAt(n + 1) == 'x' || text.charAt(n + 1) == 'X')) {
+			double v = parseHex(text, n + 2, to);
+			if (!Double.isNaN(v)) {
+				return negative ? -v : v;
+			}
+			return fallback(text, from, to);
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean dot = false;
+		boolean any = false;
+		for(; n < to; ++n) {
+			ch = text.charAt(n);
+			if (ch >= '0' && ch <= '9') {
+				any = true;
+				if (mantissa == 0 && ch == '0') {
+					// leading zeros do not count
+					if (dot) {
+						++scale;
+					}
+					continue;
+				}
+				if (++digits > MAX_EXACT_DIGITS) {
+					return fallback(text, from, to);
+				}
+				mantissa = mantissa * 10 + (ch - '0');
+				if (dot) {
+					++scale;
+				}
+			}
+			else if (ch == '.' && !dot) {
+				dot = true;
+			}
+			else {
+				// exponent, suffix, whitespace or garbage
+				return fallback(text, from, to);
+			}
+		}
+		if (!any || scale >= POW10.length) {
+			return fallback(text, from, to);
+		}
+		double v = scale == 0 ? mantissa : mantissa / POW10[scale];
+		return negative ? -v : v;
+	}
+
+	/**
+	 * @return NaN if region is not a plain hex integer
+	 */
+	private static double parseHex(CharSequence text, int from, int to) {
+		if (from >= to) {
+			return Double.NaN;
+		}
+		if (to - from > MAX_EXACT_DIGITS) {
+			for(int i = from; i != to; ++i) {
+				if (Character.digit(text.charAt(i), 16) < 0) {
+					return Double.NaN;
+				}
+			}
+			return new BigInteger(text.subSequence(from, to).toString(), 16).doubleValue();
+		}
+		long v = 0;
+		for(int i = from; i != to; ++i) {
+			int d = Character.digit(text.charAt(i), 16);
+			if (d < 0) {
+				return Double.NaN;
+			}
+			v = (v << 4) + d;
+		}
+		return v;
+	}
+
+	private static double fallback(CharSequence text, int from, int to) {
+		return Double.parseDouble(text.subSequence(from, to).toString());
+	}
+}
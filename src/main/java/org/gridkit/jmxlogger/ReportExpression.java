@@ -0,0 +1,511 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arithmetic over reporter variables, used as <code>&lt;report&gt;</code> value.
+ * <p>
+ * Supported syntax
+ * <ul>
+ * <li>numbers and variable names, variables should be numeric</li>
+ * <li><code>+ - * / %</code> and unary minus</li>
+ * <li>comparisons <code>&lt; &lt;= &gt; &gt;= == !=</code> and <code>&amp;&amp; || !</code>, yielding 1 or 0</li>
+ * <li>conditional <code>c ? a : b</code></li>
+ * <li>functions <code>min(a, b)</code>, <code>max(a, b)</code>, <code>abs(a)</code></li>
+ * <li><code>NaN</code>, unless there is variable with such name</li>
+ * </ul>
+ * Variable with empty value is <code>NaN</code>. <code>NaN</code> result is not reported,
+ * so <code>STATUS &gt;= 500 ? TIME : NaN</code> would report only failed requests.
+ * <p>
+ * Expression is compiled once into a tree of nodes over slot values, variables
+ * bound to constants are folded. Evaluation does not allocate.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class ReportExpression {
+
+	private static final int ADD = 0;
+	private static final int SUB = 1;
+	private static final int MUL = 2;
+	private static final int DIV = 3;
+	private static final int MOD = 4;
+	private static final int LT = 5;
+	private static final int LE = 6;
+	private static final int GT = 7;
+	private static final int GE = 8;
+	private static final int EQ = 9;
+	private static final int NE = 10;
+	private static final int AND = 11;
+	private static final int OR = 12;
+	private static final int MIN = 13;
+	private static final int MAX = 14;
+
+	/**
+	 * @param vars variable names, position is a slot
+	 * @param consts constant value of each slot, <code>null</code> if variable is not constant
+	 */
+	public static ReportExpression compile(String text, String[] vars, String[] consts) {
+		Parser parser = new Parser(text, vars, consts);
+		Node root = parser.parse();
+		int[] slots = new int[parser.slots.size()];
+		for(int i = 0; i != slots.length; ++i) {
+			slots[i] = parser.slots.get(i);
+		}
+		return new ReportExpression(text, root, slots);
+	}
+
+	private final String text;
+	private final Node root;
+	private final int[] slots;
+
+	private ReportExpression(String text, Node root, int[] slots) {
+		this.text = text;
+		this.root = root;
+		this.slots = slots;
+	}
+
+	/**
+	 * @return slots of variables referenced by expression, constants excluded
+	 */
+	public int[] getSlots() {
+		return slots;
+	}
+
+	/**
+	 * @param values slot values, only slots returned by {@link #getSlots()} are read
+	 */
+	public double evaluate(double[] values) {
+		return root.eval(values);
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	private static abstract class Node {
+
+		abstract double eval(double[] v);
+
+		boolean isConst() {
+			return false;
+		}
+	}
+
+	private static class Const extends Node {
+
+		final double value;
+
+		Const(double value) {
+			this.value = value;
+		}
+
+		@Override
+		double eval(double[] v) {
+			return value;
+		}
+
+		@Override
+		boolean isConst() {
+			return true;
+		}
+	}
+
+	private static class Var extends Node {
+
+		final int slot;
+
+		Var(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		double eval(double[] v) {
+			return v[slot];
+		}
+	}
+
+	private static class Neg extends Node {
+
+		final Node a;
+
+		Neg(Node a) {
+			this.a = a;
+		}
+
+		@Override
+		double eval(double[] v) {
+			return -a.eval(v);
+		}
+	}
+
+	private static class Not extends Node {
+
+		final Node a;
+
+		Not(Node a) {
+			this.a = a;
+		}
+
+		@Override
+		double eval(double[] v) {
+			return a.eval(v) == 0 ? 1 : 0;
+		}
+	}
+
+	private static class Abs extends Node {
+
+		final Node a;
+
+		Abs(Node a) {
+			this.a = a;
+		}
+
+		@Override
+		double eval(double[] v) {
+			return Math.abs(a.eval(v));
+		}
+	}
+
+	private static class Binary extends Node {
+
+		final int op;
+		final Node a;
+		final Node b;
+
+		Binary(int op, Node a, Node b) {
+			this.op = op;
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		double eval(double[] v) {
+			double x = a.eval(v);
+			switch(op) {
+				// short circuit
+				case AND: return x != 0 && b.eval(v) != 0 ? 1 : 0;
+				case OR: return x != 0 || b.eval(v) != 0 ? 1 : 0;
+			}
+			double y = b.eval(v);
+			switch(op) {
+				case ADD: return x + y;
+				case SUB: return x - y;
+				case MUL: return x * y;
+				case DIV: return x / y;
+				case MOD: return x % y;
+				case LT: return x < y ? 1 : 0;
+				case LE: return x <= y ? 1 : 0;
+				case GT: return x > y ? 1 : 0;
+				case GE: return x >= y ? 1 : 0;
+				case EQ: return x == y ? 1 : 0;
+				case NE: return x != y ? 1 : 0;
+				case MIN: return Math.min(x, y);
+				case MAX: return Math.max(x, y);
+				default: throw new IllegalStateException("Unknown operation " + op);
+			}
+		}
+	}
+
+	private static class Cond extends Node {
+
+		final Node c;
+		final Node a;
+		final Node b;
+
+		Cond(Node c, Node a, Node b) {
+			this.c = c;
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		double eval(double[] v) {
+			return c.eval(v) != 0 ? a.eval(v) : b.eval(v);
+		}
+	}
+
+	/**
+	 * Recursive descent parser, operator precedence follows Java.
+	 */
+	private static class Parser {
+
+		final String text;
+		final String[] vars;
+		final String[] consts;
+		final List<Integer> slots = new ArrayList<Integer>();
+		int pos;
+
+		Parser(String text, String[] vars, String[] consts) {
+			this.text = text;
+			this.vars = vars;
+			this.consts = consts;
+		}
+
+		Node parse() {
+			Node node = conditional();
+			skipSpaces();
+			if (pos < text.length()) {
+				throw error("Unexpected '" + text.charAt(pos) + "'");
+			}
+			return node;
+		}
+
+		private Node conditional() {
+			Node c = or();
+			if (accept("?")) {
+				Node a = conditional();
+				expect(":");
+				Node b = conditional();
+				if (c.isConst()) {
+					return c.eval(null) != 0 ? a : b;
+				}
+				return new Cond(c, a, b);
+			}
+			return c;
+		}
+
+		private Node or() {
+			Node node = and();
+			while(accept("||")) {
+				node = fold(new Binary(OR, node, and()));
+			}
+			return node;
+		}
+
+		private Node and() {
+			Node node = comparison();
+			while(accept("&&")) {
+				node = fold(new Binary(AND, node, comparison()));
+			}
+			return node;
+		}
+
+		private Node comparison() {
+			Node node = additive();
+			while(true) {
+				if (accept("<=")) {
+					node = fold(new Binary(LE, node, additive()));
+				}
+				else if (accept(">=")) {
+					node = fold(new Binary(GE, node, additive()));
+				}
+				else if (accept("==")) {
+					node = fold(new Binary(EQ, node, additive()));
+				}
+				else if (accept("!=")) {
+					node = fold(new Binary(NE, node, additive()));
+				}
+				else if (accept("<")) {
+					node = fold(new Binary(LT, node, additive()));
+				}
+				else if (accept(">")) {
+					node = fold(new Binary(GT, node, additive()));
+				}
+				else {
+					return node;
+				}
+			}
+		}
+
+		private Node additive() {
+			Node node = multiplicative();
+			while(true) {
+				if (accept("+")) {
+					node = fold(new Binary(ADD, node, multiplicative()));
+				}
+				else if (accept("-")) {
+					node = fold(new Binary(SUB, node, multiplicative()));
+				}
+				else {
+					return node;
+				}
+			}
+		}
+
+		private Node multiplicative() {
+			Node node = unary();
+			while(true) {
+				if (accept("*")) {
+					node = fold(new Binary(MUL, node, unary()));
+				}
+				else if (accept("/")) {
+					node = fold(new Binary(DIV, node, unary()));
+				}
+				else if (accept("%")) {
+					node = fold(new Binary(MOD, node, unary()));
+				}
+				else {
+					return node;
+				}
+			}
+		}
+
+		private Node unary() {
+			if (accept("-")) {
+				Node a = unary();
+				return a.isConst() ? new Const(-a.eval(null)) : new Neg(a);
+			}
+			else if (accept("+")) {
+				return unary();
+			}
+			else if (peek("!") && !peek("!=")) {
+				accept("!");
+				Node a = unary();
+				return fold(new Not(a));
+			}
+			return primary();
+		}
+
+		private Node primary() {
+			skipSpaces();
+			if (accept("(")) {
+				Node node = conditional();
+				expect(")");
+				return node;
+			}
+			if (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+				return number();
+			}
+			if (pos < text.length() && Character.isJavaIdentifierStart(text.charAt(pos))) {
+				int start = pos;
+				while(pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) {
+					++pos;
+				}
+				String name = text.substring(start, pos);
+				if (peek("(")) {
+					return function(name);
+				}
+				return variable(name);
+			}
+			throw error(pos < text.length() ? "Unexpected '" + text.charAt(pos) + "'" : "Unexpected end of expression");
+		}
+
+		private Node number() {
+			int start = pos;
+			while(pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+				char ch = text.charAt(pos++);
+				if ((ch == 'e' || ch == 'E') && pos < text.length() && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+					++pos;
+				}
+			}
+			try {
+				return new Const(Double.parseDouble(text.substring(start, pos)));
+			}
+			catch(NumberFormatException e) {
+				throw error("Bad number '" + text.substring(start, pos) + "'");
+			}
+		}
+
+		private Node function(String name) {
+			expect("(");
+			Node a = conditional();
+			if ("abs".equals(name)) {
+				expect(")");
+				return fold(new Abs(a));
+			}
+			int op;
+			if ("min".equals(name)) {
+				op = MIN;
+			}
+			else if ("max".equals(name)) {
+				op = MAX;
+			}
+			else {
+				throw error("Unknown function '" + name + "'");
+			}
+			expect(",");
+			Node b = conditional();
+			expect(")");
+			return fold(new Binary(op, a, b));
+		}
+
+		private Node variable(String name) {
+			for(int i = 0; i != vars.length; ++i) {
+				if (vars[i].equals(name)) {
+					if (consts[i] != null) {
+						try {
+							return new Const(Double.parseDouble(consts[i].trim()));
+						}
+						catch(NumberFormatException e) {
+							throw error("Variable '" + name + "' is not numeric constant");
+						}
+					}
+					if (!slots.contains(i)) {
+						slots.add(i);
+					}
+					return new Var(i);
+				}
+			}
+			if ("NaN".equals(name)) {
+				return new Const(Double.NaN);
+			}
+			throw error("Unknown variable '" + name + "'");
+		}
+
+		private static Node fold(Node node) {
+			if (node instanceof Binary) {
+				Binary b = (Binary) node;
+				if (b.a.isConst() && b.b.isConst()) {
+					return new Const(node.eval(null));
+				}
+			}
+			else if (node instanceof Not) {
+				if (((Not) node).a.isConst()) {
+					return new Const(node.eval(null));
+				}
+			}
+			else if (node instanceof Abs) {
+				if (((Abs) node).a.isConst()) {
+					return new Const(node.eval(null));
+				}
+			}
+			return node;
+		}
+
+		private void skipSpaces() {
+			while(pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+				++pos;
+			}
+		}
+
+		private boolean peek(String token) {
+			skipSpaces();
+			return text.startsWith(token, pos);
+		}
+
+		private boolean accept(String token) {
+			if (peek(token)) {
+				pos += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(String token) {
+			if (!accept(token)) {
+				throw error("'" + token + "' is expected");
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException("Bad report expression: " + message + " at " + pos + " in [" + text + "]");
+		}
+	}
+}
@@ -0,0 +1,1786 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.ObjectName;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.gridkit.jmxlogger.BucketRegistry.BucketEvent;
+import org.gridkit.jmxlogger.GrokCompiler.GrokPattern;
+import org.gridkit.jmxlogger.JmxLoggerConfig.Config;
+import org.gridkit.jmxlogger.JmxLoggerConfig.MBean;
+import org.gridkit.jmxlogger.JmxLoggerConfig.Matcher;
+import org.gridkit.jmxlogger.JmxLoggerConfig.Variable;
+import org.gridkit.jmxlogger.MBeanNameTemplate.ResolvedName;
+import org.gridkit.jmxlogger.MultiPatternMatcher.MatchSet;
+import org.gridkit.jorka.Jorka;
+import org.gridkit.jorka.Jorka.Match;
+
+/**
+ * Parses structural data from log messages, calculates basic
+ * statistical aggregates and exposes it as MBeans.
+ * <p>
+ * Engine is independent of logging framework, front-ends
+ * ({@link StatisticsMBeanAppender}, {@link Log4j2StatisticsAppender},
+ * {@link LogbackStatisticsAppender}, {@link LogTailer}) feed it
+ * through {@link LogLineSink}.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class StatisticsEngine implements LogLineSink {
+
+	private static final Logger LOGGER = LogManager.getLogger(StatisticsEngine.class);
+	
+	private static final int DEFAULT_BUCKET_LIMIT = 1000;
+	private static final String OVERFLOW_VALUE = "other";
+	private static final int DEFAULT_SLICES = 10;
+	private static final int DEFAULT_NAME_CACHE_SIZE = 1024;
+	private static final long DEFAULT_TIME_DEPTH = TimeUnit.SECONDS.toMillis(30);
+	private static final long DEFAULT_SNAPSHOT_TTL = 100;
+	private static final long DEFAULT_PUBLISH_PERIOD = TimeUnit.SECONDS.toMillis(5);
+	private static final int DEFAULT_PUBLISH_BATCH_SIZE = 256;
+
+	/** Single daemon thread shared by publish tasks of all engines */
+	private static ScheduledExecutorService PUBLISH_EXECUTOR;
+
+	private static synchronized ScheduledExecutorService getPublishExecutor() {
+		if (PUBLISH_EXECUTOR == null) {
+			PUBLISH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Statistics JMX bean registrator");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return PUBLISH_EXECUTOR;
+	}
+	private static final int DEFAULT_ASYNC_QUEUE_SIZE = 16 << 10;
+	private static final int ASYNC_BATCH_SIZE = 256;
+	/** Time {@link #close()} waits for workers to drain async queue */
+	private static final long ASYNC_CLOSE_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+	/** Name redirected to overflow bucket retries admission every 64th sample */
+	private static final int ADMISSION_RETRY_MASK = 63;
+	/** Number of loggers with cached routes, least recently used are evicted beyond it */
+	static final int ROUTE_CACHE_LIMIT = 4096;
+	private static final long OVERLOAD_COOLDOWN = TimeUnit.SECONDS.toNanos(1);
+	/** Layout of self instrumentation histograms, nanoseconds with ~10% precision */
+	static final LogLinearHistogram LATENCY_LAYOUT = new LogLinearHistogram(100, TimeUnit.SECONDS.toNanos(10), 1);
+
+	/** Least recently used bucket is evicted to make room for new one */
+	public static final String ADMISSION_LRU = "lru";
+	/** New name gets own bucket only if it is more frequent than eviction victim, see {@link BucketRegistry} */
+	public static final String ADMISSION_FREQUENCY = "frequency";
+
+	/** Logging thread waits for space in async queue */
+	public static final String OVERLOAD_BLOCK = "block";
+	/** Line is dropped if async queue is full */
+	public static final String OVERLOAD_DROP_NEWEST = "drop-newest";
+	/** Oldest queued line is dropped to make room if async queue is full */
+	public static final String OVERLOAD_DROP_OLDEST = "drop-oldest";
+	/** Once async queue is full, all lines skip matching for cool down period */
+	public static final String OVERLOAD_BYPASS = "bypass";
+
+	/** Patterns are matched by Jorka one by one */
+	public static final String MATCH_MODE_JORKA = "jorka";
+	/** Patterns are expanded to plain regexes and matched by single {@link MultiPatternMatcher} */
+	public static final String MATCH_MODE_COMPILED = "compiled";
+	
+	private int defaultSlices = DEFAULT_SLICES;
+	private long defaultTimeDepth = DEFAULT_TIME_DEPTH;
+	private int nameCacheSize = DEFAULT_NAME_CACHE_SIZE;
+	private int defaultStripes = 1;
+	private long snapshotTtl = DEFAULT_SNAPSHOT_TTL;
+	
+	private BucketRegistry buckets = new BucketRegistry(DEFAULT_BUCKET_LIMIT);
+	
+	private String patternLibrary;
+	private Map<String, LineMatcher> matchers = new LinkedHashMap<String, LineMatcher>();
+	/** Matchers selecting events by structured fields, keyed by {@link EventFilter} description */
+	private Map<String, LineMatcher> eventMatchers = new LinkedHashMap<String, LineMatcher>();
+	private volatile MatcherIndex matcherIndex;
+	private final ThreadLocal<ExtractionRecord> extractionRecord = new ThreadLocal<ExtractionRecord>() {
+		@Override
+		protected ExtractionRecord initialValue() {
+			return new ExtractionRecord();
+		}
+	};
+	private String matchMode = MATCH_MODE_JORKA;
+	private String name;
+	
+	private volatile AdaptiveSampler sampler;
+	private MBeanPublishTask publisher;
+	private long publishPeriod = DEFAULT_PUBLISH_PERIOD;
+	private int publishBatchSize = DEFAULT_PUBLISH_BATCH_SIZE;
+	private List<StatsTable> tables = new ArrayList<StatsTable>();
+
+	private boolean async = false;
+	private int asyncQueueSize = DEFAULT_ASYNC_QUEUE_SIZE;
+	private int asyncThreads = 1;
+	private volatile AsyncLineQueue asyncQueue;
+	private List<AsyncWorker> asyncWorkers = new ArrayList<AsyncWorker>();
+
+	private String overloadPolicy = OVERLOAD_BLOCK;
+	private long eventTimeBudget = 0;
+	private volatile long bypassUntil;
+	final StripedCounter droppedLines = new StripedCounter();
+	final StripedCounter shedLines = new StripedCounter();
+
+	private boolean instrumentation = true;
+	final StripedCounter processedLines = new StripedCounter();
+	final StripedCounter nameFailures = new StripedCounter();
+	final StripedCounter registrationFailures = new StripedCounter();
+	final StripedHistogram appendLatency = new StripedHistogram(LATENCY_LAYOUT);
+	
+	public synchronized TimerTask publishJmx(MBeanPublisher server) {
+		if (publisher != null) {
+			throw new IllegalStateException("MBeanServer is already connected");
+		}
+		publisher = new MBeanPublishTask(server);
+		publisher.addBean(AppenderStats.nameOf(this), new AppenderStats(this));
+		for(StatsTable table: tables) {
+			publisher.addTable(table);
+		}
+		buckets.enableFeed();
+		publisher.schedule(publishPeriod);
+		return publisher;
+	}
+
+	/**
+	 * Period of MBean registration updates, default is 5 seconds.
+	 */
+	public synchronized void setPublishPeriod(String period) {
+		long p = TimeIntervalParser.toMillis(period);
+		if (p <= 0) {
+			throw new IllegalArgumentException("Publish period should be positive");
+		}
+		publishPeriod = p;
+		if (publisher != null) {
+			publisher.schedule(publishPeriod);
+		}
+	}
+
+	/**
+	 * Max number of registrations performed in one go, remaining changes are processed in next batch.
+	 */
+	public void setPublishBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size should be positive");
+		}
+		this.publishBatchSize = batchSize;
+	}
+
+	/**
+	 * @return delay (in milliseconds) between bucket change and its last processed MBean (un)registration
+	 */
+	public long getRegistrationLag() {
+		MBeanPublishTask p = publisher;
+		return p == null ? 0 : p.lastLag;
+	}
+
+	/**
+	 * @return max delay (in milliseconds) between bucket change and MBean (un)registration
+	 */
+	public long getMaxRegistrationLag() {
+		MBeanPublishTask p = publisher;
+		return p == null ? 0 : p.maxLag;
+	}
+	
+	/**
+	 * Name used for {@link AppenderStats} MBean, usually name of front-end appender.
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Applies configured options, should be called by front-end once configuration is complete.
+	 */
+	public void start() {
+		if (async) {
+			startAsync();
+		}
+	}
+
+	/**
+	 * Starts worker threads, after that {@link #append(long, CharSequence)}
+	 * only enqueues message and matching happens in background. 
+	 */
+	public synchronized void startAsync() {
+		if (asyncQueue != null) {
+			return;
+		}
+		AsyncLineQueue queue = new AsyncLineQueue(asyncQueueSize);
+		for(int i = 0; i != asyncThreads; ++i) {
+			AsyncWorker worker = new AsyncWorker(queue);
+			Thread thread = new Thread(worker, "Statistics appender worker-" + i);
+			thread.setDaemon(true);
+			worker.thread = thread;
+			thread.start();
+			asyncWorkers.add(worker);
+		}
+		asyncQueue = queue;
+	}
+	
+	/**
+	 * Stops async workers, waiting (bounded) until they process queued lines.
+	 * Lines still queued after that are counted as dropped.
+	 */
+	public synchronized void close() {
+		AsyncLineQueue queue = asyncQueue;
+		if (queue != null) {
+			// new lines are processed in calling thread
+			asyncQueue = null;
+			queue.close();
+			for(AsyncWorker worker: asyncWorkers) {
+				worker.stop();
+			}
+			long deadline = System.currentTimeMillis() + ASYNC_CLOSE_TIMEOUT;
+			try {
+				for(AsyncWorker worker: asyncWorkers) {
+					long timeout = deadline - System.currentTimeMillis();
+					if (timeout <= 0) {
+						break;
+					}
+					worker.thread.join(timeout);
+				}
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			asyncWorkers.clear();
+			Object[] route = new Object[1];
+			while(queue.discard(route)) {
+				droppedLines.increment();
+				countDropped(route[0], false);
+			}
+		}
+		if (publisher != null) {
+			publisher.cancel();
+		}
+	}
+
+	public void setAutoRegister(boolean enabled) {
+		if (enabled) {
+			publishJmx(new PlatformMBeanPublisher());
+		}
+	}
+
+	/**
+	 * Enables background matching of log lines. Takes effect on {@link #start()}.
+	 */
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+
+	/**
+	 * One of {@link #OVERLOAD_BLOCK} (default), {@link #OVERLOAD_DROP_NEWEST},
+	 * {@link #OVERLOAD_DROP_OLDEST} or {@link #OVERLOAD_BYPASS}.
+	 */
+	public void setOverloadPolicy(String policy) {
+		policy = policy.trim().toLowerCase();
+		if (!OVERLOAD_BLOCK.equals(policy) && !OVERLOAD_DROP_NEWEST.equals(policy)
+				&& !OVERLOAD_DROP_OLDEST.equals(policy) && !OVERLOAD_BYPASS.equals(policy)) {
+			throw new IllegalArgumentException("Unknown overload policy: " + policy);
+		}
+		// interned, so hot path could compare references
+		this.overloadPolicy = policy.intern();
+	}
+
+	public String getOverloadPolicy() {
+		return overloadPolicy;
+	}
+
+	/**
+	 * If matching and reporting of single line by a matcher takes longer,
+	 * matcher is bypassed for cool down period. Budget is checked after line
+	 * has been processed, so only following lines are skipped (counted as matcher's shed lines).
+	 * Applies in both sync and async mode, regardless of overload policy.
+	 * Zero (default) disables time budget.
+	 */
+	public void setEventTimeBudgetMicros(long micros) {
+		this.eventTimeBudget = TimeUnit.MICROSECONDS.toNanos(micros);
+	}
+
+	/**
+	 * Enables counters and timers of engine's own activity, see {@link AppenderStatsMBean}.
+	 * Enabled by default.
+	 */
+	public void setInstrumentation(boolean enabled) {
+		this.instrumentation = enabled;
+	}
+
+	public boolean isInstrumentation() {
+		return instrumentation;
+	}
+
+	/**
+	 * @return live bucket or <code>null</code>
+	 */
+	StatsBucket getBucket(ObjectName name) {
+		return buckets.get(name);
+	}
+
+	public long getBucketEvictions() {
+		return buckets.getEvictionCount();
+	}
+
+	/**
+	 * @return number of lines waiting in async queue
+	 */
+	public int getAsyncQueueSize() {
+		AsyncLineQueue queue = asyncQueue;
+		return queue == null ? 0 : queue.size();
+	}
+
+	public void setAsyncQueueSize(int asyncQueueSize) {
+		this.asyncQueueSize = asyncQueueSize;
+	}
+
+	public void setAsyncThreads(int asyncThreads) {
+		if (asyncThreads < 1) {
+			throw new IllegalArgumentException("At least one async thread is required");
+		}
+		this.asyncThreads = asyncThreads;
+	}
+
+	/**
+	 * Maximum number of live buckets, default is 1000.
+	 * Bucket without histogram takes about 1 KiB per stripe. With histogram
+	 * each active stripe adds up to 15 KiB for default layout (104 KiB with precision 2),
+	 * so worst case is limit &times; stripes &times; that size,
+	 * see {@link JmxLoggerConfig.Histogram}, limit should be lowered accordingly.
+	 */
+	public void setBucketLimit(int bucketLimit) {
+		buckets.setLimit(bucketLimit);
+	}
+
+	/**
+	 * Enables adaptive sampling of log lines. Sampling probability is adjusted,
+	 * so about <code>linesPerSecond</code> lines are matched. Counts and rates are
+	 * scaled by inverse of probability. Zero disables sampling.
+	 */
+	public void setSamplingBudget(long linesPerSecond) {
+		sampler = linesPerSecond <= 0 ? null : new AdaptiveSampler(linesPerSecond);
+	}
+
+	/**
+	 * @return current probability of line being processed
+	 */
+	public double getSamplingProbability() {
+		AdaptiveSampler s = sampler;
+		return s == null ? 1 : s.getProbability();
+	}
+
+	/**
+	 * Either {@link #ADMISSION_LRU} (default) or {@link #ADMISSION_FREQUENCY}.
+	 * With frequency admission, samples of rare names are aggregated in
+	 * per reporter bucket, with all variables set to <code>other</code>.
+	 */
+	public void setAdmissionPolicy(String policy) {
+		policy = policy.trim().toLowerCase();
+		if (ADMISSION_LRU.equals(policy)) {
+			buckets.setFrequencyAdmission(false);
+		}
+		else if (ADMISSION_FREQUENCY.equals(policy)) {
+			buckets.setFrequencyAdmission(true);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown admission policy: " + policy);
+		}
+	}
+
+	/**
+	 * Number of instantiated MBean names cached per reporter. Affects reporters added afterwards.
+	 */
+	public void setNameCacheSize(int nameCacheSize) {
+		this.nameCacheSize = nameCacheSize;
+	}
+	
+	public void setConfig(String config) {
+		try {
+			InputStream is = getClass().getClassLoader().getResourceAsStream(config);
+			if (is == null) {
+				if (new File(config).isFile()) {
+					is = new FileInputStream(config);
+				}
+			}
+			if (is == null) {
+				throw new IllegalArgumentException("Configuration not found");
+			}
+			JAXBContext ctx = JAXBContext.newInstance(Config.class);
+			Config cfg = (Config) ctx.createUnmarshaller().unmarshal(is);
+			processConfig(cfg);
+		}
+		catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		catch(JAXBException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void processConfig(Config cfg) {
+		setPatternLibrary(cfg.patterns);
+		for(Matcher matcher: cfg.matchers) {
+			Map<String, String> vars = new HashMap<String, String>();
+			for(Variable var: matcher.vars.values()) {
+				vars.put(var.name, var.expr);
+			}
+			
+			for(MBean reporter: matcher.beans) {
+				try {
+					StatsBucket.Spec spec = new StatsBucket.Spec();
+					spec.description = reporter.description;
+					spec.slices = reporter.slices < 0 ? defaultSlices : reporter.slices;
+					spec.timeDepth = reporter.timeDepth == null ? defaultTimeDepth : TimeIntervalParser.toMillis(reporter.timeDepth);
+					spec.stripes = reporter.stripes < 0 ? defaultStripes : reporter.stripes;
+					if (reporter.histogram != null) {
+						spec.histogram = new LogLinearHistogram(reporter.histogram.lowest, reporter.histogram.highest, reporter.histogram.precision);
+					}
+					if (reporter.aggregate != null) {
+						spec.aggregate = new ObjectName(reporter.aggregate.name);
+						spec.publishBuckets = reporter.aggregate.publishBuckets;
+					}
+					if (matcher.pattern == null) {
+						addEventReporter(toEventFilter(matcher), vars, reporter.mbean, reporter.valueRef, spec);
+					}
+					else if (!matcher.mdc.isEmpty()) {
+						throw new IllegalArgumentException("MDC conditions are allowed only for matcher without <pattern>");
+					}
+					else {
+						addReporter(matcher.hasEventConditions() ? toEventFilter(matcher) : null, matcher.pattern, vars, reporter.mbean, reporter.valueRef, spec);
+					}
+				} catch (Exception e) {
+					LOGGER.error("Configuration error", e);
+				}
+			}
+		}		
+	}
+
+	private static EventFilter toEventFilter(Matcher matcher) {
+		EventFilter filter = new EventFilter();
+		filter.setLogger(matcher.logger);
+		filter.setLevel(matcher.level);
+		for(JmxLoggerConfig.MdcCondition c: matcher.mdc) {
+			filter.addMdc(c.key, c.value == null ? null : c.value.trim());
+		}
+		return filter;
+	}
+
+	public void setPatternLibrary(String patterns) {
+		this.patternLibrary = patterns;
+		matcherIndex = null;
+	}
+
+	/**
+	 * Either {@link #MATCH_MODE_JORKA} (default) or {@link #MATCH_MODE_COMPILED}.
+	 */
+	public void setMatchMode(String mode) {
+		mode = mode.trim().toLowerCase();
+		if (!MATCH_MODE_JORKA.equals(mode) && !MATCH_MODE_COMPILED.equals(mode)) {
+			throw new IllegalArgumentException("Unknown match mode: " + mode);
+		}
+		this.matchMode = mode;
+		matcherIndex = null;
+	}
+	
+	/**
+	 * Exposed mostly for testing reasons
+	 * 
+	 * @param bufferSize ignored, sliding window is time sliced now
+	 */
+	public void addSimpleReporter(String pattern, Map<String, String> variables, String beanName, String expression, String description, int bufferSize, long timeDepth) {
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.description = description;
+		spec.slices = defaultSlices;
+		spec.timeDepth = timeDepth < 0 ? defaultTimeDepth : timeDepth;
+		spec.stripes = defaultStripes;
+		addReporter(pattern, variables, beanName, expression, spec);
+	}
+
+	/**
+	 * Adds reporter for events selected by structured fields. All variables
+	 * should be either constants or event field references (e.g. <code>$mdc.durationMs</code>).
+	 */
+	void addEventReporter(EventFilter filter, Map<String, String> variables, String beanName, String expression, StatsBucket.Spec spec) {
+		for(String var: variables.keySet()) {
+			String value = variables.get(var).trim();
+			if (!EventField.isFieldRef(value) && value.length() > 0 && Character.isJavaIdentifierStart(value.charAt(0))) {
+				throw new IllegalArgumentException("Variable '" + var + "' refers pattern capture, but matcher has no pattern");
+			}
+		}
+		String key = filter.toString();
+		LineMatcher m = eventMatchers.get(key);
+		if (m == null) {
+			m = new LineMatcher();
+			m.rootPattern = key;
+			m.filter = filter;
+			eventMatchers.put(key, m);
+		}
+		m.repoters.add(createReporter(variables, beanName, expression, spec));
+		matcherIndex = null;
+	}
+
+	void addReporter(String pattern, Map<String, String> variables, String beanName, String expression, StatsBucket.Spec spec) {
+		addReporter(null, pattern, variables, beanName, expression, spec);
+	}
+
+	/**
+	 * @param scope logger and level conditions, <code>null</code> if pattern applies to any line
+	 */
+	void addReporter(EventFilter scope, String pattern, Map<String, String> variables, String beanName, String expression, StatsBucket.Spec spec) {
+		if (scope != null && scope.hasMdc()) {
+			throw new IllegalArgumentException("MDC conditions are not supported for patterns");
+		}
+		String key = scope == null ? pattern : "[" + scope + "] " + pattern;
+		LineMatcher m;
+		if (matchers.containsKey(key)) {
+			m = matchers.get(key);
+		}
+		else {
+			LineMatcher mm = new LineMatcher();
+			Jorka j = new Jorka();
+			if (patternLibrary != null) {
+				try {
+					j.addPatternFromReader(new StringReader(patternLibrary));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			j.compile(pattern);			
+			mm.rootPattern = pattern;
+			mm.filter = scope;
+			mm.jorka = j;
+			mm.literals = LiteralIndex.requiredLiterals(pattern);
+			matchers.put(key, mm);
+			m = mm;
+		}
+		
+		m.repoters.add(createReporter(variables, beanName, expression, spec));
+		matcherIndex = null;
+	}
+
+	private Reporter createReporter(Map<String, String> variables, String beanName, String expression, StatsBucket.Spec spec) {
+		Reporter rep = new Reporter();
+		JmxLoggerConfig.validateMBeanName(beanName, variables.keySet());
+		if (expression == null || expression.trim().length() == 0) {
+			throw new IllegalArgumentException("Report expression is missing");
+		}
+		initVars(rep, variables);
+		rep.expression = expression;
+		rep.valueSlot = rep.slotOf(expression.trim());
+		if (rep.valueSlot < 0) {
+			rep.value = ReportExpression.compile(expression, rep.vars, rep.consts);
+		}
+		rep.mbean = beanName;
+		rep.nameTemplate = new MBeanNameTemplate(beanName, rep.vars, nameCacheSize);
+		rep.spec = spec;
+		spec.overflowName = rep.nameTemplate.fill(OVERFLOW_VALUE);
+
+		if (spec.aggregate != null) {
+			addTable(new StatsTable(buckets, spec, beanName));
+		}
+		return rep;
+	}
+	
+	private synchronized void addTable(StatsTable table) {
+		for(StatsTable t: tables) {
+			if (t.getName().equals(table.getName())) {
+				throw new IllegalArgumentException("Duplicate aggregate name: " + table.getName());
+			}
+		}
+		tables.add(table);
+		if (publisher != null) {
+			publisher.addTable(table);
+		}
+	}
+
+	private void initVars(Reporter rep, Map<String, String> variables) {
+		int n = variables.size();
+		rep.vars = new String[n];
+		rep.paths = new String[n][];
+		rep.consts = new String[n];
+		int slot = 0;
+		for(String key: variables.keySet()) {
+			String value = variables.get(key).trim();
+			rep.vars[slot] = key;
+			if (EventField.isFieldRef(value)) {
+				if (rep.fields == null) {
+					rep.fields = new EventField[n];
+				}
+				rep.fields[slot] = EventField.parse(value);
+			}
+			else if (value.length() > 0 && Character.isJavaIdentifierStart(value.charAt(0))) {
+				rep.paths[slot] = value.split("[.]");
+			}
+			else {
+				rep.consts[slot] = value;
+			}
+			++slot;
+		}		
+	}
+
+	/**
+	 * @deprecated sliding window is no longer sample buffer, use {@link #setDefaultSlices(int)}
+	 */
+	@Deprecated
+	public void setDefaultBufferSize(int bufferSize) {
+		// ignored
+	}
+
+	/**
+	 * Number of time slices sliding window is split into, see {@link StatsBucket}.
+	 */
+	public void setDefaultSlices(int slices) {
+		if (slices < 1) {
+			throw new IllegalArgumentException("Slice count should be positive");
+		}
+		this.defaultSlices = slices;
+	}
+	
+	/**
+	 * Number of independently locked stripes in each bucket, see {@link StatsBucket}.
+	 */
+	public void setDefaultStripes(int stripes) {
+		this.defaultStripes = stripes;
+	}
+	
+	/**
+	 * How long analyzed statistics are reused by MBean before bucket is analyzed again.
+	 */
+	public void setSnapshotTtl(String ttl) {
+		this.snapshotTtl = TimeIntervalParser.toMillis(ttl);
+	}
+
+	public void setDefaultTimeDepth(String depth) {
+		this.defaultTimeDepth = TimeIntervalParser.toMillis(depth);
+	}
+	
+	/**
+	 * Entry point for front-ends. Message is either processed in calling thread
+	 * or copied to async queue, so reusable buffer could be passed.
+	 */
+	@Override
+	public void append(long timestamp, CharSequence message) {
+		boolean instrumented = instrumentation;
+		long startTime = instrumented ? System.nanoTime() : 0;
+		AsyncLineQueue queue = asyncQueue;
+		if (queue != null) {
+			enqueueLogLine(queue, timestamp, message.toString());
+		}
+		else {
+			processLogLine(timestamp, message, null);
+		}
+		if (instrumented) {
+			appendLatency.record(System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * Entry point for front-ends providing structured fields. Event matchers are
+	 * evaluated in calling thread, message is rendered only if text patterns are configured.
+	 * In async mode, event fields referenced by reporters are copied into queue entry.
+	 */
+	@Override
+	public void append(long timestamp, LogEventFields event) {
+		boolean instrumented = instrumentation;
+		long startTime = instrumented ? System.nanoTime() : 0;
+		Route route = getMatcherIndex().route(event);
+		if (route.events.length > 0) {
+			processEvent(timestamp, event, route.events, null);
+		}
+		if (route.engine != null) {
+			CharSequence message = event.getMessage();
+			AsyncLineQueue queue = asyncQueue;
+			if (queue != null) {
+				enqueueLogLine(queue, timestamp, message.toString(), route.captureFields ? new CapturedEvent(route, event) : route);
+			}
+			else {
+				processLogLine(timestamp, message, event, route, null);
+			}
+		}
+		else if (instrumented) {
+			processedLines.increment();
+		}
+		if (instrumented) {
+			appendLatency.record(System.nanoTime() - startTime);
+		}
+	}
+
+	void enqueueLogLine(AsyncLineQueue queue, long timestamp, String line) {
+		enqueueLogLine(queue, timestamp, line, null);
+	}
+
+	/**
+	 * @param route either {@link Route} or {@link CapturedEvent}, <code>null</code> for lines without logger
+	 */
+	void enqueueLogLine(AsyncLineQueue queue, long timestamp, String line, Object route) {
+		if (queue.isClosed()) {
+			// workers are stopping, line may be left in queue
+			processQueued(timestamp, line, route);
+			return;
+		}
+		String policy = overloadPolicy;
+		if (policy == OVERLOAD_BLOCK) {
+			int attempt = 0;
+			while(!queue.offer(timestamp, line, route)) {
+				if (queue.isClosed()) {
+					// nobody would make room in queue
+					processQueued(timestamp, line, route);
+					return;
+				}
+				backoff(++attempt);
+			}
+		}
+		else if (policy == OVERLOAD_BYPASS) {
+			if (bypassUntil != 0 && bypassUntil - System.nanoTime() > 0) {
+				shedLines.increment();
+				countDropped(route, true);
+			}
+			else if (!queue.offer(timestamp, line, route)) {
+				bypassUntil = System.nanoTime() + OVERLOAD_COOLDOWN;
+				shedLines.increment();
+				countDropped(route, true);
+			}
+		}
+		else if (policy == OVERLOAD_DROP_OLDEST) {
+			Object[] discarded = null;
+			while(!queue.offer(timestamp, line, route)) {
+				if (discarded == null) {
+					discarded = new Object[1];
+				}
+				if (queue.discard(discarded)) {
+					droppedLines.increment();
+					countDropped(discarded[0], false);
+				}
+			}
+		}
+		else {
+			if (!queue.offer(timestamp, line, route)) {
+				droppedLines.increment();
+				countDropped(route, false);
+			}
+		}
+	}
+
+	/**
+	 * Charges line lost to queue overload to matchers of its route.
+	 * @param shed <code>true</code> if line was shed by {@link #OVERLOAD_BYPASS} policy
+	 */
+	private void countDropped(Object route, boolean shed) {
+		Route r = routeOf(route);
+		for(int id: r.ids) {
+			LineMatcher matcher = r.index.matchers[id];
+			if (shed) {
+				matcher.shed.increment();
+			}
+			else {
+				matcher.dropped.increment();
+			}
+		}
+	}
+
+	private Route routeOf(Object route) {
+		if (route instanceof CapturedEvent) {
+			return ((CapturedEvent)route).route;
+		}
+		else {
+			return route == null ? getMatcherIndex().plain : (Route)route;
+		}
+	}
+
+	/**
+	 * @param route routing context of queue entry, see {@link #enqueueLogLine(AsyncLineQueue, long, String, Object)}
+	 */
+	private void processQueued(long timestamp, String line, Object route) {
+		LogEventFields event = route instanceof CapturedEvent ? (CapturedEvent)route : null;
+		processLogLine(timestamp, line, event, routeOf(route), null);
+	}
+
+	private static void backoff(int attempt) {
+		if (attempt < 16) {
+			// spin
+		}
+		else if (attempt < 32) {
+			Thread.yield();
+		}
+		else {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(Math.min(attempt, 1000)));
+		}
+	}
+	
+	public void processLogLine(long timestamp, String line) {
+		processLogLine(timestamp, line, null);
+	}
+
+	/**
+	 * Variant for reusable line buffers. Compiled patterns are matched
+	 * in place, {@link String} is created only for Jorka matchers.
+	 */
+	public void processLogLine(long timestamp, CharSequence line) {
+		processLogLine(timestamp, line, null);
+	}
+
+	/**
+	 * @param sink if not <code>null</code>, samples are passed to sink instead of buckets,
+	 *        sampling, time budget and self instrumentation are not applied
+	 */
+	void processLogLine(long timestamp, CharSequence line, SampleSink sink) {
+		processLogLine(timestamp, line, null, getMatcherIndex().plain, sink);
+	}
+
+	/**
+	 * @param event structured fields for <code>$</code> variables, may be <code>null</code>
+	 * @param route matchers applicable to line
+	 */
+	private void processLogLine(long timestamp, CharSequence line, LogEventFields event, Route route, SampleSink sink) {
+		double weight = 1;
+		// replay into sink should see every line and reflect log as is
+		AdaptiveSampler s = sink == null ? sampler : null;
+		if (s != null) {
+			weight = s.sample(timestamp);
+			if (weight == 0) {
+				return;
+			}
+		}
+		boolean instrumented = instrumentation && sink == null;
+		long budget = sink == null ? eventTimeBudget : 0;
+		if (instrumented) {
+			processedLines.increment();
+		}
+		if (route.engine == null) {
+			return;
+		}
+		MatcherIndex index = route.index;
+		ExtractionRecord rec = extractionRecord.get();
+		MatchSet ms = route.engine.match(line);
+		for(int i = 0; i != ms.size(); ++i) {
+			int p = ms.patternAt(i);
+			int id = route.ids[p];
+			LineMatcher matcher = index.matchers[id];
+			if (matcher.repoters.isEmpty()) {
+				continue;
+			}
+			boolean timed = budget > 0 || instrumented;
+			long startTime = timed ? System.nanoTime() : 0;
+			if (budget > 0 && matcher.bypassUntil != 0 && matcher.bypassUntil - startTime > 0) {
+				matcher.shed.increment();
+				continue;
+			}
+			boolean matched = processMatch(timestamp, weight, line, event, index, id, ms.matcher(p), rec, sink);
+			if (timed) {
+				long elapsed = System.nanoTime() - startTime;
+				if (instrumented) {
+					matcher.candidates.increment();
+					if (matched) {
+						matcher.matched.increment();
+					}
+					matcher.matchTime.record(elapsed);
+				}
+				if (budget > 0 && elapsed > budget) {
+					matcher.bypassUntil = startTime + OVERLOAD_COOLDOWN;
+					matcher.overloads.increment();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Matches line against single matcher and reports extracted values.
+	 * @param cm compiled pattern positioned at match, <code>null</code> if line should be matched by Jorka
+	 * @return <code>true</code> if line has matched
+	 */
+	private boolean processMatch(long timestamp, double weight, CharSequence line, LogEventFields event, MatcherIndex index, int id, java.util.regex.Matcher cm, ExtractionRecord rec, SampleSink sink) {
+		LineMatcher matcher = index.matchers[id];
+		if (cm != null) {
+			for(FieldBinding binding: index.bindings[id]) {
+				binding.extract(line, cm, rec);
+				if (event != null) {
+					binding.reporter.extractFields(event, rec);
+				}
+				report(timestamp, weight, binding.reporter, rec, line, sink);
+			}
+			return true;
+		}
+		else {
+			Match m = matcher.jorka.match(line.toString());
+			if (m == null) {
+				return false;
+			}
+			m.parse();
+			Map<String, Object> tree = m.toMap();
+			for(Reporter rep: matcher.repoters) {
+				rep.extract(tree, rec);
+				if (event != null) {
+					rep.extractFields(event, rec);
+				}
+				report(timestamp, weight, rep, rec, line, sink);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Evaluates event matchers, no regex is involved.
+	 * Event matchers are not subject to sampling and time budget.
+	 */
+	private void processEvent(long timestamp, LogEventFields event, LineMatcher[] events, SampleSink sink) {
+		boolean instrumented = instrumentation;
+		ExtractionRecord rec = extractionRecord.get();
+		for(LineMatcher matcher: events) {
+			long startTime = instrumented ? System.nanoTime() : 0;
+			boolean matched = matcher.filter.matches(event);
+			if (matched) {
+				for(Reporter rep: matcher.repoters) {
+					rec.reset(rep.vars.length);
+					if (rep.extractFields(event, rec)) {
+						report(timestamp, 1, rep, rec, matcher.rootPattern, sink);
+					}
+				}
+			}
+			if (instrumented) {
+				matcher.candidates.increment();
+				if (matched) {
+					matcher.matched.increment();
+				}
+				matcher.matchTime.record(System.nanoTime() - startTime);
+			}
+		}
+	}
+	
+	MatcherIndex getMatcherIndex() {
+		MatcherIndex index = matcherIndex;
+		if (index == null) {
+			synchronized(this) {
+				index = matcherIndex;
+				if (index == null) {
+					index = new MatcherIndex(matchers.values(), eventMatchers.values(), MATCH_MODE_COMPILED.equals(matchMode) ? new GrokCompiler(patternLibrary) : null);
+					matcherIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+	
+	private void report(long timestamp, double weight, Reporter rep, ExtractionRecord rec, CharSequence line, SampleSink sink) {
+		try {
+			ResolvedName rn = rep.nameTemplate.resolve(rec);
+			ObjectName name = rn.name;
+			if (name == null) {
+				nameFailures.increment();
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Failed instantiate MBane name. [" + rep.mbean + "] " + rep.describe(rec));
+				};
+			}
+			else {
+				double v = rep.value == null ? rec.parseDouble(rep.valueSlot) : rep.evaluate(rec);
+				if (Double.isNaN(v) && rep.value != null) {
+					// expression has discarded sample
+					return;
+				}
+				if (sink != null) {
+					sink.sample(timestamp, name, rep.spec, v, weight);
+					return;
+				}
+				StatsBucket bucket = rn.bucket;
+				if (bucket == null || bucket.evicted || (bucket.overflow && (++rn.overflowHits & ADMISSION_RETRY_MASK) == 0)) {
+					bucket = buckets.ensureBucket(name, rep.spec);
+					rn.bucket = bucket;
+				}
+				else if (bucket.overflow) {
+					// name is not admitted, keep its frequency growing without taking lock
+					buckets.recordAccess(name);
+				}
+				else {
+					buckets.touch(bucket);
+				}
+				bucket.append(timestamp, v, weight);
+			}
+		}
+		catch(Exception e) {
+			rep.errors.increment();
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Reporing error for line: " + line, e);
+			}
+		}
+	}
+
+	class MBeanPublishTask extends TimerTask implements Runnable {
+
+		private Map<ObjectName, StatsBucket> registered = new HashMap<ObjectName, StatsBucket>();
+		private List<ObjectName> registeredBeans = new ArrayList<ObjectName>();
+		private ConcurrentLinkedQueue<Object[]> pendingBeans = new ConcurrentLinkedQueue<Object[]>();
+		private MBeanPublisher publisher;
+		private ScheduledFuture<?> future;
+		private boolean cancelled;
+
+		volatile long lastLag;
+		volatile long maxLag;
+
+		public MBeanPublishTask(MBeanPublisher publisher) {
+			this.publisher = publisher;
+		}
+
+		synchronized void schedule(long period) {
+			if (cancelled) {
+				return;
+			}
+			if (future != null) {
+				future.cancel(false);
+			}
+			future = getPublishExecutor().scheduleWithFixedDelay(this, period, period, TimeUnit.MILLISECONDS);
+		}
+
+		public void addTable(StatsTable table) {
+			addBean(table.getName(), table);
+		}
+
+		/**
+		 * Schedules registration of auxiliary MBean, which stays registered until task is cancelled.
+		 */
+		public void addBean(ObjectName name, Object bean) {
+			pendingBeans.add(new Object[]{name, bean});
+		}
+
+		@Override
+		public void run() {
+			if (processBatch(publishBatchSize)) {
+				// more changes are pending, continue without hogging shared thread
+				try {
+					getPublishExecutor().execute(this);
+				}
+				catch(RejectedExecutionException e) {
+					// ignore
+				}
+			}
+		}
+
+		/**
+		 * @return <code>true</code> if there are more pending changes
+		 */
+		synchronized boolean processBatch(int batchSize) {
+			if (cancelled) {
+				return false;
+			}
+			Object[] bean;
+			while((bean = pendingBeans.poll()) != null) {
+				registeredBeans.add((ObjectName)bean[0]);
+				registerMBean((ObjectName)bean[0], bean[1]);
+			}
+			BucketEvent event;
+			int n = 0;
+			while(n < batchSize && (event = buckets.pollEvent()) != null) {
+				++n;
+				long lag = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - event.timestamp);
+				lastLag = lag;
+				if (lag > maxLag) {
+					maxLag = lag;
+				}
+				StatsBucket bucket = event.bucket;
+				ObjectName name = bucket.bucketName;
+				StatsBucket current = registered.get(name);
+				if (event.added) {
+					if (current == bucket || bucket.evicted || !bucket.spec.publishBuckets) {
+						continue;
+					}
+					if (current != null) {
+						unregisterMBean(name);
+					}
+					registered.put(name, bucket);
+					registerMBean(name, new Stats(bucket, snapshotTtl));
+				}
+				else if (current == bucket) {
+					registered.remove(name);
+					unregisterMBean(name);
+				}
+			}
+			return n == batchSize;
+		}
+		
+		@Override
+		public synchronized boolean cancel() {
+			cancelled = true;
+			if (future != null) {
+				future.cancel(false);
+				future = null;
+			}
+			for(ObjectName name: registered.keySet()) {
+				unregisterMBean(name);
+			}
+			registered.clear();
+			for(ObjectName name: registeredBeans) {
+				unregisterMBean(name);
+			}
+			registeredBeans.clear();
+			return super.cancel();
+		}
+
+		private void registerMBean(ObjectName name, Object statProxy) {
+			try {
+				publisher.registerMBean(name, statProxy);
+			}
+			catch(Exception e) {
+				registrationFailures.increment();
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Failed to register: " + name, e);
+				}
+			}
+		}
+
+		private void unregisterMBean(ObjectName name) {
+			try {
+				publisher.unregisterMBean(name);
+			}
+			catch(Exception e) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Failed to unregister: " + name, e);
+				}
+			}
+		}
+	}
+	
+	class AsyncWorker implements Runnable {
+		
+		private final AsyncLineQueue queue;
+		private final long[] timestamps = new long[ASYNC_BATCH_SIZE];
+		private final String[] lines = new String[ASYNC_BATCH_SIZE];
+		private final Object[] routes = new Object[ASYNC_BATCH_SIZE];
+		private volatile boolean stopped;
+		Thread thread;
+
+		public AsyncWorker(AsyncLineQueue queue) {
+			this.queue = queue;
+		}
+		
+		@Override
+		public void run() {
+			int idle = 0;
+			while(true) {
+				int n = queue.drainTo(timestamps, lines, routes, ASYNC_BATCH_SIZE);
+				if (n == 0) {
+					if (stopped) {
+						break;
+					}
+					backoff(++idle);
+					continue;
+				}
+				idle = 0;
+				for(int i = 0; i != n; ++i) {
+					try {
+						processQueued(timestamps[i], lines[i], routes[i]);
+					}
+					catch(Exception e) {
+						if (LOGGER.isDebugEnabled()) {
+							LOGGER.debug("Failed to process line: " + lines[i], e);
+						}
+					}
+					lines[i] = null;
+					routes[i] = null;
+				}
+			}
+		}
+
+		/**
+		 * Worker will exit after queue is drained.
+		 */
+		public void stop() {
+			stopped = true;
+		}
+	}
+	
+	/**
+	 * Receives extracted samples instead of live buckets, used by {@link LogReplay}.
+	 */
+	interface SampleSink {
+
+		public void sample(long timestamp, ObjectName name, StatsBucket.Spec spec, double value, double weight);
+
+	}
+
+	static class LineMatcher {
+
+		Jorka jorka;
+		/** Pattern or event filter description */
+		String rootPattern; 
+		/** Conditions of event matcher or logger and level scope of pattern, <code>null</code> if pattern is not scoped */
+		EventFilter filter;
+		List<String> literals;
+		
+		List<Reporter> repoters = new ArrayList<Reporter>();
+
+		/** Lines skipped while matcher or async queue is bypassed */
+		final StripedCounter shed = new StripedCounter();
+		/** Lines routed to matcher, dropped due to full async queue */
+		final StripedCounter dropped = new StripedCounter();
+		/** Number of time budget violations */
+		final StripedCounter overloads = new StripedCounter();
+		/** Lines passed prefilter */
+		final StripedCounter candidates = new StripedCounter();
+		final StripedCounter matched = new StripedCounter();
+		final StripedHistogram matchTime = new StripedHistogram(LATENCY_LAYOUT);
+		volatile long bypassUntil;
+
+		boolean isEventMatcher() {
+			return jorka == null;
+		}
+
+		/**
+		 * @return pattern prefixed by its scope or event filter description
+		 */
+		String describe() {
+			return filter == null || isEventMatcher() ? rootPattern : "[" + filter + "] " + rootPattern;
+		}
+	}
+	
+	/**
+	 * Immutable snapshot of configured matchers with their matching engine.
+	 */
+	static class MatcherIndex {
+		
+		final LineMatcher[] matchers;
+		/** Matchers selecting events by structured fields */
+		final LineMatcher[] events;
+		final MultiPatternMatcher engine;
+		/** Reporters bound to compiled patterns, <code>null</code> for Jorka matchers */
+		final FieldBinding[][] bindings;
+		/** Route for lines without logger, only unscoped patterns apply */
+		final Route plain;
+
+		private final GrokPattern[] compiled;
+		private final List<List<String>> literals;
+		/** <code>true</code> if any matcher has logger or level condition */
+		private final boolean scoped;
+		private final boolean levelScoped;
+		/** Routes by logger name */
+		private final ConcurrentMap<String, RouteSlot> routes = new ConcurrentHashMap<String, RouteSlot>();
+		// guarded by this, CLOCK over cached routes
+		private final List<RouteSlot> routeClock = new ArrayList<RouteSlot>();
+		private int routeHand;
+		/** Engines shared by routes with same set of patterns */
+		private final Map<String, MultiPatternMatcher> engines = new HashMap<String, MultiPatternMatcher>();
+		
+		/**
+		 * @param compiler if <code>null</code> all patterns would be matched by Jorka
+		 */
+		public MatcherIndex(Collection<LineMatcher> list, Collection<LineMatcher> eventList, GrokCompiler compiler) {
+			matchers = list.toArray(new LineMatcher[list.size()]);
+			events = eventList.toArray(new LineMatcher[eventList.size()]);
+			bindings = new FieldBinding[matchers.length][];
+			compiled = new GrokPattern[matchers.length];
+			literals = new ArrayList<List<String>>();
+			for(int i = 0; i != matchers.length; ++i) {
+				literals.add(matchers[i].literals);
+				if (compiler != null) {
+					try {
+						compiled[i] = compiler.compile(matchers[i].rootPattern);
+						bindings[i] = new FieldBinding[matchers[i].repoters.size()];
+						for(int j = 0; j != bindings[i].length; ++j) {
+							bindings[i][j] = new FieldBinding(matchers[i].repoters.get(j), compiled[i]);
+						}
+					}
+					catch(Exception e) {
+						LOGGER.warn("Pattern cannot be compiled, falling back to Jorka: " + matchers[i].rootPattern, e);
+						compiled[i] = null;
+						bindings[i] = null;
+					}
+				}
+			}
+			engine = new MultiPatternMatcher(compiled, literals);
+
+			boolean scoped = false;
+			boolean levelScoped = false;
+			for(LineMatcher m: all()) {
+				if (m.filter != null) {
+					scoped = true;
+					levelScoped |= m.filter.isLevelScoped();
+				}
+			}
+			this.scoped = scoped;
+			this.levelScoped = levelScoped;
+			plain = buildRoute(null, -1);
+		}
+
+		/**
+		 * Lookup of matchers applicable to event. Routes are cached per logger, so
+		 * events from loggers not covered by any scoped matcher cost a single
+		 * map lookup if no unscoped matchers are configured.
+		 * Cache is bounded by {@link StatisticsEngine#ROUTE_CACHE_LIMIT}, loggers
+		 * are evicted using CLOCK algorithm, same as buckets in {@link BucketRegistry}.
+		 */
+		public Route route(LogEventFields event) {
+			String logger = event.getLoggerName();
+			if (!scoped) {
+				return plain;
+			}
+			if (logger == null) {
+				logger = "";
+			}
+			int rank = levelScoped ? EventFilter.levelRank(event.getLevel()) : -1;
+			RouteSlot slot = routes.get(logger);
+			if (slot == null) {
+				slot = cacheSlot(logger);
+			}
+			else if (!slot.referenced) {
+				// avoid writing shared cache line if bit is already set
+				slot.referenced = true;
+			}
+			Route route = slot.byLevel[rank + 1];
+			if (route == null) {
+				// race is benign, route is immutable
+				route = slot.byLevel[rank + 1] = buildRoute(logger, rank);
+			}
+			return route;
+		}
+
+		private synchronized RouteSlot cacheSlot(String logger) {
+			RouteSlot slot = routes.get(logger);
+			if (slot != null) {
+				return slot;
+			}
+			slot = new RouteSlot(logger);
+			if (routeClock.size() < ROUTE_CACHE_LIMIT) {
+				routeClock.add(slot);
+			}
+			else {
+				while(true) {
+					RouteSlot victim = routeClock.get(routeHand);
+					if (victim.referenced) {
+						victim.referenced = false;
+						routeHand = (routeHand + 1) % routeClock.size();
+					}
+					else {
+						routes.remove(victim.logger);
+						routeClock.set(routeHand, slot);
+						routeHand = (routeHand + 1) % routeClock.size();
+						break;
+					}
+				}
+			}
+			routes.put(logger, slot);
+			return slot;
+		}
+
+		int cachedRoutes() {
+			return routes.size();
+		}
+
+		private Route buildRoute(String logger, int rank) {
+			int[] ids = new int[matchers.length];
+			int n = 0;
+			for(int i = 0; i != matchers.length; ++i) {
+				EventFilter scope = matchers[i].filter;
+				if (scope == null || (logger != null && scope.acceptsScope(logger, rank))) {
+					ids[n++] = i;
+				}
+			}
+			List<LineMatcher> el = new ArrayList<LineMatcher>();
+			for(LineMatcher m: events) {
+				if (m.filter.acceptsScope(logger, rank)) {
+					el.add(m);
+				}
+			}
+			ids = Arrays.copyOf(ids, n);
+			boolean capture = false;
+			List<String> mdcKeys = new ArrayList<String>();
+			for(int id: ids) {
+				for(Reporter rep: matchers[id].repoters) {
+					if (rep.fields != null) {
+						capture = true;
+						for(EventField f: rep.fields) {
+							if (f != null && f.getMdcKey() != null && !mdcKeys.contains(f.getMdcKey())) {
+								mdcKeys.add(f.getMdcKey());
+							}
+						}
+					}
+				}
+			}
+			return new Route(this, engineFor(ids), ids, el.toArray(new LineMatcher[el.size()]), capture, mdcKeys.toArray(new String[mdcKeys.size()]));
+		}
+
+		private synchronized MultiPatternMatcher engineFor(int[] ids) {
+			if (ids.length == 0) {
+				return null;
+			}
+			if (ids.length == matchers.length) {
+				return engine;
+			}
+			String key = Arrays.toString(ids);
+			MultiPatternMatcher e = engines.get(key);
+			if (e == null) {
+				GrokPattern[] patterns = new GrokPattern[ids.length];
+				List<List<String>> lits = new ArrayList<List<String>>();
+				for(int i = 0; i != ids.length; ++i) {
+					patterns[i] = compiled[ids[i]];
+					lits.add(literals.get(ids[i]));
+				}
+				e = new MultiPatternMatcher(patterns, lits);
+				engines.put(key, e);
+			}
+			return e;
+		}
+
+		/**
+		 * @return text matchers followed by event matchers
+		 */
+		public List<LineMatcher> all() {
+			List<LineMatcher> list = new ArrayList<LineMatcher>(Arrays.asList(matchers));
+			list.addAll(Arrays.asList(events));
+			return list;
+		}
+	}
+	
+	/**
+	 * Cached routes of single logger.
+	 */
+	static class RouteSlot {
+
+		final String logger;
+		/** Indexed by level rank + 1 */
+		final Route[] byLevel = new Route[EventFilter.LEVEL_COUNT + 1];
+		/** CLOCK reference bit */
+		volatile boolean referenced;
+
+		RouteSlot(String logger) {
+			this.logger = logger;
+		}
+	}
+
+	/**
+	 * Subset of matchers applicable to particular logger and level.
+	 * Route refers its index, so line in async queue is processed
+	 * consistently even if configuration has been changed.
+	 */
+	static class Route {
+
+		final MatcherIndex index;
+		/** Engine over routed patterns, <code>null</code> if no patterns are routed */
+		final MultiPatternMatcher engine;
+		/** Matcher id for each pattern of engine */
+		final int[] ids;
+		final LineMatcher[] events;
+		/** <code>true</code> if routed patterns have reporters referring event fields */
+		final boolean captureFields;
+		/** MDC keys referred by reporters of routed patterns */
+		final String[] mdcKeys;
+
+		Route(MatcherIndex index, MultiPatternMatcher engine, int[] ids, LineMatcher[] events, boolean captureFields, String[] mdcKeys) {
+			this.index = index;
+			this.engine = engine;
+			this.ids = ids;
+			this.events = events;
+			this.captureFields = captureFields;
+			this.mdcKeys = mdcKeys;
+		}
+	}
+
+	/**
+	 * Copy of event fields needed by routed reporters, travels
+	 * through async queue along with message text.
+	 */
+	static class CapturedEvent implements LogEventFields {
+
+		final Route route;
+		private final String logger;
+		private final String level;
+		private final String thread;
+		private final Object[] mdcValues;
+
+		CapturedEvent(Route route, LogEventFields event) {
+			this.route = route;
+			this.logger = event.getLoggerName();
+			this.level = event.getLevel();
+			this.thread = event.getThreadName();
+			this.mdcValues = new Object[route.mdcKeys.length];
+			for(int i = 0; i != mdcValues.length; ++i) {
+				Object v = event.getProperty(route.mdcKeys[i]);
+				// MDC value may be mutable
+				mdcValues[i] = v == null ? null : v.toString();
+			}
+		}
+
+		@Override
+		public String getLoggerName() {
+			return logger;
+		}
+
+		@Override
+		public String getLevel() {
+			return level;
+		}
+
+		@Override
+		public String getThreadName() {
+			return thread;
+		}
+
+		@Override
+		public Object getProperty(String key) {
+			for(int i = 0; i != mdcValues.length; ++i) {
+				if (route.mdcKeys[i].equals(key)) {
+					return mdcValues[i];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Message is queued separately.
+		 */
+		@Override
+		public CharSequence getMessage() {
+			return null;
+		}
+	}
+
+	static class Reporter {
+
+		String mbean;
+		MBeanNameTemplate nameTemplate;
+		/** Variable names, position in array is a slot in {@link ExtractionRecord} */
+		String[] vars;
+		/** Capture path for each slot, <code>null</code> for constants */
+		String[][] paths;
+		/** Constant value for each slot, <code>null</code> for captures */
+		String[] consts;
+		/** Event field for each slot, <code>null</code> if none of slots refer event fields */
+		EventField[] fields;
+		String expression;
+		/** Slot of reported variable, -1 if {@link #value} is used */
+		int valueSlot;
+		/** Compiled report expression, <code>null</code> if expression is plain variable */
+		ReportExpression value;
+		StatsBucket.Spec spec;
+		final StripedCounter errors = new StripedCounter();
+		
+		int slotOf(String var) {
+			for(int i = 0; i != vars.length; ++i) {
+				if (vars[i].equals(var)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Fills record from Jorka capture tree.
+		 */
+		void extract(Map<String, Object> tree, ExtractionRecord rec) {
+			rec.reset(vars.length);
+			for(int i = 0; i != vars.length; ++i) {
+				rec.set(i, consts[i] != null ? consts[i] : paths[i] != null ? resolve(tree, paths[i]) : "");
+			}
+		}
+
+		/**
+		 * Fills slots bound to event fields, other slots are left intact.
+		 * @return <code>false</code> if value slot has no value
+		 */
+		boolean extractFields(LogEventFields event, ExtractionRecord rec) {
+			for(int i = 0; i != vars.length; ++i) {
+				if (consts[i] != null) {
+					rec.set(i, consts[i]);
+				}
+			}
+			if (fields == null) {
+				return true;
+			}
+			// expression treats missing values as NaN
+			boolean valuePresent = valueSlot < 0 || fields[valueSlot] == null;
+			for(int i = 0; i != fields.length; ++i) {
+				if (fields[i] != null) {
+					CharSequence v = fields[i].get(event);
+					if (v == null) {
+						v = "";
+					}
+					else if (i == valueSlot) {
+						valuePresent = true;
+					}
+					rec.set(i, v);
+				}
+			}
+			return valuePresent;
+		}
+
+		double evaluate(ExtractionRecord rec) {
+			double[] args = rec.numbers();
+			for(int slot: value.getSlots()) {
+				args[slot] = rec.length(slot) == 0 ? Double.NaN : rec.parseDouble(slot);
+			}
+			return value.evaluate(args);
+		}
+
+		private static String resolve(Map<String, Object> tree, String[] path) {
+			Object c = tree;
+			for(String f: path) {
+				c = ((Map<?, ?>)c).get(f);
+				if (c == null) {
+					return "";
+				}
+			}
+			
+			return (String)c;
+		}
+
+		String describe(ExtractionRecord rec) {
+			StringBuilder sb = new StringBuilder();
+			sb.append('{');
+			for(int i = 0; i != vars.length; ++i) {
+				if (i > 0) {
+					sb.append(", ");
+				}
+				sb.append(vars[i]).append('=');
+				rec.appendTo(i, sb);
+			}
+			sb.append('}');
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Reporter variables resolved to capture groups of compiled pattern.
+	 */
+	static class FieldBinding {
+		
+		final Reporter reporter;
+		/** Candidate group numbers for each slot, <code>null</code> for constants */
+		final int[][] groups;
+		
+		FieldBinding(Reporter reporter, GrokPattern pattern) {
+			this.reporter = reporter;
+			groups = new int[reporter.vars.length][];
+			for(int i = 0; i != groups.length; ++i) {
+				if (reporter.paths[i] != null) {
+					StringBuilder sb = new StringBuilder();
+					for(String f: reporter.paths[i]) {
+						if (sb.length() > 0) {
+							sb.append('.');
+						}
+						sb.append(f);
+					}
+					int[] g = pattern.captures.get(sb.toString());
+					groups[i] = g == null ? new int[0] : g;
+				}
+			}
+		}
+		
+		void extract(CharSequence line, java.util.regex.Matcher m, ExtractionRecord rec) {
+			rec.reset(groups.length);
+			for(int i = 0; i != groups.length; ++i) {
+				if (groups[i] == null) {
+					// event field slots are filled separately
+					rec.set(i, reporter.consts[i] == null ? "" : reporter.consts[i]);
+				}
+				else {
+					rec.set(i, "");
+					for(int g: groups[i]) {
+						int s = m.start(g);
+						if (s >= 0) {
+							rec.set(i, line, s, m.end(g));
+							break;
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	public static class InstantStats {
+		
+		public String description;
+		
+		public double count = 0;
+		public double avg = Double.NaN;
+		public double stdDev = Double.NaN;
+		public double min = Double.NaN;
+		public double max = Double.NaN;
+		public double rate = Double.NaN;
+		public double window = Double.NaN;
+		
+		public long tsAnchor;
+		public long timestamp;
+		public long totalCount;
+		/** Lifetime sums are <code>hi + lo</code> pairs, see {@link CompensatedSum} */
+		public double totalSum;
+		public double totalSumLo;
+		public double totalSquareSum;
+		public double totalSquareSumLo;
+		public double totalCubeSum;
+		public double totalCubeSumLo;
+		public double totalMean = Double.NaN;
+		public double totalVariance = Double.NaN;
+		public double totalSkewness = Double.NaN;
+		public double totalMin;
+		public double totalMax;
+
+		public double p50 = Double.NaN;
+		public double p90 = Double.NaN;
+		public double p99 = Double.NaN;
+		public double p999 = Double.NaN;
+		public double totalP50 = Double.NaN;
+		public double totalP90 = Double.NaN;
+		public double totalP99 = Double.NaN;
+		public double totalP999 = Double.NaN;
+
+		/**
+		 * Exact lifetime sum, lifetime sums used to be {@link BigDecimal} fields.
+		 */
+		public BigDecimal getTotalSum() {
+			return CompensatedSum.toBigDecimal(totalSum, totalSumLo);
+		}
+
+		public BigDecimal getTotalSquareSum() {
+			return CompensatedSum.toBigDecimal(totalSquareSum, totalSquareSumLo);
+		}
+
+		public BigDecimal getTotalCubeSum() {
+			return CompensatedSum.toBigDecimal(totalCubeSum, totalCubeSumLo);
+		}
+	}
+}
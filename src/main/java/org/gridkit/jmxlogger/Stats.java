@@ -15,110 +15,282 @@
  */
 package org.gridkit.jmxlogger;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-import org.gridkit.jmxlogger.StatisticsMBeanAppender.InstantStats;
-import org.gridkit.jmxlogger.StatisticsMBeanAppender.StatsBucket;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
 
-class Stats implements StatsMBean  {
-	
-	private StatsBucket source;
+import org.gridkit.jmxlogger.StatisticsEngine.InstantStats;
+
+/**
+ * JMX view of {@link StatsBucket}.
+ * <p>
+ * Attributes are described by {@link StatsMBean}. Bucket is analyzed
+ * at most once per snapshot TTL, all attributes requested by single
+ * {@link #getAttributes(String[])} call are served from same snapshot.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class Stats implements DynamicMBean {
+
+	static final Map<String, Method> GETTERS = new LinkedHashMap<String, Method>();
+	private static final MBeanInfo INFO;
+	static {
+		List<MBeanAttributeInfo> attrs = new ArrayList<MBeanAttributeInfo>();
+		for(Method m: StatsMBean.class.getMethods()) {
+			if (m.getName().startsWith("get") && m.getParameterTypes().length == 0) {
+				String name = m.getName().substring(3);
+				StatsMBean.Description d = m.getAnnotation(StatsMBean.Description.class);
+				GETTERS.put(name, m);
+				attrs.add(new MBeanAttributeInfo(name, m.getReturnType().getName(), d == null ? name : d.value(), true, false, false));
+			}
+		}
+		INFO = new MBeanInfo(Stats.class.getName(), "Log statistics",
+				attrs.toArray(new MBeanAttributeInfo[attrs.size()]),
+				new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+	}
+
+	private final StatsBucket source;
+	private final long snapshotTtl;
 	private long lastTimestamp;
-	private InstantStats stats;
-	
-	public Stats(StatsBucket source) {
+	private Snapshot snapshot;
+
+	/**
+	 * @param snapshotTtl time in milliseconds analyzed snapshot is reused
+	 */
+	public Stats(StatsBucket source, long snapshotTtl) {
 		this.source = source;
+		this.snapshotTtl = snapshotTtl;
 	}
-	
-	
-	@Override
-	public String getDescription() {
-		return getStats().description;
+
+	/**
+	 * @return immutable view of bucket statistics
+	 */
+	public synchronized StatsMBean snapshot() {
+		long now = System.nanoTime();
+		if (snapshot == null || (now - lastTimestamp) >= TimeUnit.MILLISECONDS.toNanos(snapshotTtl)) {
+			snapshot = new Snapshot(source.analyze());
+			lastTimestamp = now;
+		}
+		return snapshot;
 	}
-	
-	@Override
-	public long getTimestamp() {
-		return getStats().timestamp;
-	}	
-	
+
 	@Override
-	public double getSlidingCount() {
-		return getStats().count;
+	public MBeanInfo getMBeanInfo() {
+		return INFO;
 	}
-	
+
 	@Override
-	public double getSlidingAverage() {
-		return getStats().avg;
+	public Object getAttribute(String attribute) throws AttributeNotFoundException, MBeanException, ReflectionException {
+		Method m = GETTERS.get(attribute);
+		if (m == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return read(m, snapshot());
 	}
-	
+
 	@Override
-	public double getSlidingMin() {
-		return getStats().min;
+	public AttributeList getAttributes(String[] attributes) {
+		StatsMBean view = snapshot();
+		AttributeList result = new AttributeList(attributes.length);
+		for(String attribute: attributes) {
+			Method m = GETTERS.get(attribute);
+			if (m != null) {
+				try {
+					result.add(new Attribute(attribute, read(m, view)));
+				} catch (ReflectionException e) {
+					// skip, as per DynamicMBean contract
+				}
+			}
+		}
+		return result;
 	}
 
 	@Override
-	public double getSlidingMax() {
-		return getStats().max;
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Attribute " + attribute.getName() + " is read only");
 	}
-	
+
 	@Override
-	public double getSlidingStdDev() {
-		return getStats().stdDev;
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
 	}
-	
+
 	@Override
-	public double getSlidingRate() {
-		return getStats().rate;
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
 	}
-	
-	@Override
-	public double getSlidingWindow() {
-		return getStats().window;
+
+	static Object read(Method m, StatsMBean view) throws ReflectionException {
+		try {
+			return m.invoke(view);
+		} catch (IllegalAccessException e) {
+			throw new ReflectionException(e);
+		} catch (InvocationTargetException e) {
+			throw new ReflectionException(e);
+		}
 	}
+
+	/**
+	 * Attribute values of single {@link InstantStats}.
+	 */
+	static class Snapshot implements StatsMBean {
+
+		private final InstantStats stats;
+
+		public Snapshot(InstantStats stats) {
+			this.stats = stats;
+		}
+
+		@Override
+		public String getDescription() {
+			return stats.description;
+		}
 	
-	@Override
-	public long getLifetimeStart() {
-		return getStats().tsAnchor;
-	}
+		@Override
+		public long getTimestamp() {
+			return stats.timestamp;
+		}	
+	
+		@Override
+		public double getSlidingCount() {
+			return stats.count;
+		}
+	
+		@Override
+		public double getSlidingAverage() {
+			return stats.avg;
+		}
+	
+		@Override
+		public double getSlidingMin() {
+			return stats.min;
+		}
 
-	@Override
-	public long getLifetimeCount() {
-		return getStats().totalCount;
-	}
+		@Override
+		public double getSlidingMax() {
+			return stats.max;
+		}
+	
+		@Override
+		public double getSlidingStdDev() {
+			return stats.stdDev;
+		}
+	
+		@Override
+		public double getSlidingRate() {
+			return stats.rate;
+		}
+	
+		@Override
+		public double getSlidingWindow() {
+			return stats.window;
+		}
+	
+		@Override
+		public long getLifetimeStart() {
+			return stats.tsAnchor;
+		}
 
-	@Override
-	public BigDecimal getLifetimeSum() {
-		return getStats().totalSum;
-	}
+		@Override
+		public long getLifetimeCount() {
+			return stats.totalCount;
+		}
 
-	@Override
-	public BigDecimal getLifetimeSquareSum() {
-		return getStats().totalSquareSum;
-	}
+		@Override
+		public BigDecimal getLifetimeSum() {
+			return stats.getTotalSum();
+		}
 
-	@Override
-	public BigDecimal getLifetimeCubeSum() {
-		return getStats().totalCubeSum;
-	}
+		@Override
+		public BigDecimal getLifetimeSquareSum() {
+			return stats.getTotalSquareSum();
+		}
+
+		@Override
+		public BigDecimal getLifetimeCubeSum() {
+			return stats.getTotalCubeSum();
+		}
 	
-	@Override
-	public double getLifetimeMin() {
-		return getStats().totalMin;
-	}
+		@Override
+		public double getLifetimeMean() {
+			return stats.totalMean;
+		}
 
-	@Override
-	public double getLifetimeMax() {
-		return getStats().totalMax;
-	}
+		@Override
+		public double getLifetimeVariance() {
+			return stats.totalVariance;
+		}
+
+		@Override
+		public double getLifetimeSkewness() {
+			return stats.totalSkewness;
+		}
+
+		@Override
+		public double getLifetimeMin() {
+			return stats.totalMin;
+		}
+
+		@Override
+		public double getLifetimeMax() {
+			return stats.totalMax;
+		}
+
+		@Override
+		public double getSlidingP50() {
+			return stats.p50;
+		}
 
-	private synchronized InstantStats getStats() {
-		if (stats != null && ((System.nanoTime() - lastTimestamp) < TimeUnit.MILLISECONDS.toNanos(100))) {
-			return stats;
+		@Override
+		public double getSlidingP90() {
+			return stats.p90;
 		}
-		else {
-			stats = source.analyze();
-			return stats;
+
+		@Override
+		public double getSlidingP99() {
+			return stats.p99;
+		}
+
+		@Override
+		public double getSlidingP999() {
+			return stats.p999;
+		}
+
+		@Override
+		public double getLifetimeP50() {
+			return stats.totalP50;
+		}
+
+		@Override
+		public double getLifetimeP90() {
+			return stats.totalP90;
+		}
+
+		@Override
+		public double getLifetimeP99() {
+			return stats.totalP99;
+		}
+
+		@Override
+		public double getLifetimeP999() {
+			return stats.totalP999;
 		}
 	}
-}
\ No newline at end of file
+}
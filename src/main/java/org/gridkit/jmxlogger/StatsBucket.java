@@ -0,0 +1,400 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.gridkit.jmxlogger.StatisticsEngine.InstantStats;
+
+/**
+ * Statistical aggregates for single MBean.
+ * <p>
+ * Bucket consists of one or more stripes, each stripe has its own
+ * lock, time slices and running aggregates. Writer thread always
+ * uses same stripe (see {@link ThreadProbe}), so with enough stripes
+ * writers do not contend.
+ * Stripes are merged on {@link #analyze()}.
+ * <p>
+ * Sliding window is made of fixed time slices, each slice holds
+ * count, sum, sum of squared deviations, min and max of its samples.
+ * Window covers whole <code>timeDepth</code> (plus part of current slice),
+ * memory and read cost depend only on number of slices, not on event rate.
+ * <p>
+ * Lifetime power sums are kept in {@link CompensatedSum}s, lifetime
+ * mean and central moments are tracked incrementally, so appends
+ * do not allocate.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class StatsBucket {
+
+	private static final double S2M = TimeUnit.SECONDS.toMillis(1);
+
+	/** Window and lifetime counts of histogram being merged, reused across {@link #analyze()} calls */
+	private static final ThreadLocal<long[][]> HISTOGRAM_SCRATCH = new ThreadLocal<long[][]>() {
+		@Override
+		protected long[][] initialValue() {
+			return new long[2][0];
+		}
+	};
+
+	final ObjectName bucketName;
+	final Spec spec;
+	private final String description;
+
+	/** CLOCK reference bit, see {@link BucketRegistry} */
+	volatile boolean referenced;
+	volatile boolean evicted;
+	/** Collects samples of names not admitted to registry */
+	boolean overflow;
+
+	private final long timeDepth;
+	private final long anchorTimestamp;
+	private final int sliceCount;
+	private final long sliceDuration;
+
+	private final Stripe[] stripes;
+	private final int stripeMask;
+
+	private final LogLinearHistogram histogram;
+
+	public StatsBucket(ObjectName name, Spec spec) {
+		bucketName = name;
+		this.spec = spec;
+		description = spec.description;
+		timeDepth = spec.timeDepth;
+		anchorTimestamp = System.currentTimeMillis();
+		sliceCount = Math.max(1, spec.slices);
+		sliceDuration = Math.max(1, (timeDepth + sliceCount - 1) / sliceCount);
+		histogram = spec.histogram;
+		int n = spec.stripes <= 1 ? 1 : Integer.highestOneBit(spec.stripes - 1) << 1;
+		stripes = new Stripe[n];
+		stripeMask = n - 1;
+		for(int i = 0; i != n; ++i) {
+			// one extra slice is being filled while others form the window
+			stripes[i] = new Stripe(sliceCount + 1, sliceDuration, anchorTimestamp, histogram == null ? null : histogram.newRecorder(sliceCount + 1));
+		}
+	}
+
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	public void append(long timestamp, double sample) {
+		append(timestamp, sample, 1);
+	}
+
+	/**
+	 * @param weight number of events sample represents (inverse of sampling probability)
+	 */
+	public void append(long timestamp, double sample, double weight) {
+		Stripe stripe = stripeMask == 0 ? stripes[0] : stripes[ThreadProbe.get() & stripeMask];
+		stripe.append(timestamp, sample, weight);
+	}
+
+	public InstantStats analyze() {
+
+		long nowTime = System.currentTimeMillis();
+		long firstSliceId = (nowTime - timeDepth) / sliceDuration;
+		long windowStart = Math.max(anchorTimestamp, firstSliceId * sliceDuration);
+
+		Summary sum = new Summary();
+		sum.firstSliceId = firstSliceId;
+		if (histogram != null) {
+			int length = histogram.length();
+			long[][] scratch = HISTOGRAM_SCRATCH.get();
+			if (scratch[0].length < length) {
+				scratch[0] = new long[length];
+				scratch[1] = new long[length];
+			}
+			else {
+				Arrays.fill(scratch[0], 0, length, 0);
+				Arrays.fill(scratch[1], 0, length, 0);
+			}
+			sum.windowCounts = scratch[0];
+			sum.totalCounts = scratch[1];
+		}
+		for(Stripe stripe: stripes) {
+			stripe.collect(sum);
+		}
+
+		InstantStats stats = new InstantStats();
+
+		if (sum.count > 0) {
+			stats.count = sum.weight;
+			stats.min = sum.min;
+			stats.max = sum.max;
+			stats.avg = sum.total / sum.count;
+			stats.window = (nowTime - windowStart) / S2M;
+			if (nowTime > windowStart) {
+				stats.rate = S2M * sum.weight / (nowTime - windowStart);
+			}
+		}
+
+		if (sum.count > 2) {
+			stats.stdDev = Math.sqrt(sum.m2 / sum.count);
+		}
+
+		if (histogram != null) {
+			long windowTotal = 0;
+			for(int i = 0; i != histogram.length(); ++i) {
+				windowTotal += sum.windowCounts[i];
+			}
+			stats.p50 = histogram.percentile(sum.windowCounts, windowTotal, 0.5);
+			stats.p90 = histogram.percentile(sum.windowCounts, windowTotal, 0.9);
+			stats.p99 = histogram.percentile(sum.windowCounts, windowTotal, 0.99);
+			stats.p999 = histogram.percentile(sum.windowCounts, windowTotal, 0.999);
+			stats.totalP50 = histogram.percentile(sum.totalCounts, sum.totalCount, 0.5);
+			stats.totalP90 = histogram.percentile(sum.totalCounts, sum.totalCount, 0.9);
+			stats.totalP99 = histogram.percentile(sum.totalCounts, sum.totalCount, 0.99);
+			stats.totalP999 = histogram.percentile(sum.totalCounts, sum.totalCount, 0.999);
+		}
+
+		stats.tsAnchor = anchorTimestamp;
+		stats.totalCount = Math.round(sum.totalWeight);
+		stats.totalMin = sum.totalMin;
+		stats.totalMax = sum.totalMax;
+		stats.totalSum = sum.totalSum.hi();
+		stats.totalSumLo = sum.totalSum.lo();
+		stats.totalSquareSum = sum.totalSquareSum.hi();
+		stats.totalSquareSumLo = sum.totalSquareSum.lo();
+		stats.totalCubeSum = sum.totalCubeSum.hi();
+		stats.totalCubeSumLo = sum.totalCubeSum.lo();
+		if (sum.totalCount > 0) {
+			stats.totalMean = sum.totalMean;
+			stats.totalVariance = sum.totalM2 / sum.totalCount;
+			if (sum.totalM2 > 0) {
+				stats.totalSkewness = Math.sqrt((double)sum.totalCount) * sum.totalM3 / Math.pow(sum.totalM2, 1.5);
+			}
+		}
+
+		stats.description = description;
+		stats.timestamp = System.currentTimeMillis();
+
+		return stats;
+	}
+
+	/**
+	 * Bucket parameters, shared by all buckets of a reporter.
+	 */
+	static class Spec {
+
+		String description;
+		long timeDepth;
+		/** Number of time slices in sliding window */
+		int slices = 10;
+		int stripes = 1;
+		/** Percentile histogram layout, <code>null</code> if disabled */
+		LogLinearHistogram histogram;
+		/** Name of aggregated {@link StatsTable} MBean, <code>null</code> if disabled */
+		ObjectName aggregate;
+		/** Whether each bucket is registered as its own MBean */
+		boolean publishBuckets = true;
+		/** Name of bucket for samples of names rejected by admission, <code>null</code> if name has no variables */
+		ObjectName overflowName;
+
+	}
+
+	/**
+	 * Merged aggregates of stripes.
+	 */
+	private static class Summary {
+
+		long firstSliceId;
+		int count;
+		/** Count of represented events, differs from count if sampled */
+		double weight;
+		double total;
+		/** Sum of squared deviations from mean */
+		double m2;
+		double min = Double.NaN;
+		double max = Double.NaN;
+
+		long totalCount;
+		double totalWeight;
+		CompensatedSum totalSum = new CompensatedSum();
+		CompensatedSum totalSquareSum = new CompensatedSum();
+		CompensatedSum totalCubeSum = new CompensatedSum();
+		double totalMean;
+		double totalM2;
+		double totalM3;
+		double totalMin = Double.NaN;
+		double totalMax = Double.NaN;
+
+		long[] windowCounts;
+		long[] totalCounts;
+
+		void addWindow(int n, double w, double sum, double sm2, double smin, double smax) {
+			if (n == 0) {
+				return;
+			}
+			weight += w;
+			if (count == 0) {
+				m2 = sm2;
+			}
+			else {
+				// parallel variance combination
+				double delta = sum / n - total / count;
+				m2 += sm2 + delta * delta * ((double)count * n / (count + n));
+			}
+			count += n;
+			total += sum;
+			min = Double.isNaN(min) ? smin : Math.min(min, smin);
+			max = Double.isNaN(max) ? smax : Math.max(max, smax);
+		}
+
+		void addLifetime(long n, double w, CompensatedSum sum, CompensatedSum sqSum, CompensatedSum cubeSum, double mean, double m2, double m3, double lmin, double lmax) {
+			if (n == 0) {
+				return;
+			}
+			if (totalCount == 0) {
+				totalMean = mean;
+				totalM2 = m2;
+				totalM3 = m3;
+			}
+			else {
+				// pairwise combination of central moments (Chan, Pebay)
+				double na = totalCount;
+				double nb = n;
+				double nn = na + nb;
+				double delta = mean - totalMean;
+				double dn = delta / nn;
+				totalM3 += m3 + delta * dn * dn * na * nb * (na - nb) + 3 * dn * (na * m2 - nb * totalM2);
+				totalM2 += m2 + delta * dn * na * nb;
+				totalMean += dn * nb;
+			}
+			totalCount += n;
+			totalWeight += w;
+			totalSum.add(sum);
+			totalSquareSum.add(sqSum);
+			totalCubeSum.add(cubeSum);
+			if (!Double.isNaN(lmin)) {
+				totalMin = Double.isNaN(totalMin) ? lmin : Math.min(totalMin, lmin);
+			}
+			if (!Double.isNaN(lmax)) {
+				totalMax = Double.isNaN(totalMax) ? lmax : Math.max(totalMax, lmax);
+			}
+		}
+	}
+
+	private static class Stripe {
+
+		private final long sliceDuration;
+
+		// time slices, struct of arrays indexed by sliceId % slices
+		private final long[] sliceIds;
+		private final int[] counts;
+		private final double[] weights;
+		private final double[] sums;
+		private final double[] means;
+		private final double[] m2s;
+		private final double[] mins;
+		private final double[] maxs;
+
+		private long totalCount;
+		private double totalWeight;
+		private final CompensatedSum totalSum = new CompensatedSum();
+		private final CompensatedSum totalSquareSum = new CompensatedSum();
+		private final CompensatedSum totalCubeSum = new CompensatedSum();
+		private double totalMean;
+		private double totalM2;
+		private double totalM3;
+		private double totalMin = Double.NaN;
+		private double totalMax = Double.NaN;
+
+		private long lastTimestamp;
+
+		private final LogLinearHistogram.Recorder histogram;
+
+		Stripe(int slices, long sliceDuration, long anchorTimestamp, LogLinearHistogram.Recorder histogram) {
+			this.sliceDuration = sliceDuration;
+			sliceIds = new long[slices];
+			Arrays.fill(sliceIds, -1);
+			counts = new int[slices];
+			weights = new double[slices];
+			sums = new double[slices];
+			means = new double[slices];
+			m2s = new double[slices];
+			mins = new double[slices];
+			maxs = new double[slices];
+			lastTimestamp = anchorTimestamp;
+			this.histogram = histogram;
+		}
+
+		public synchronized void append(long timestamp, double sample, double weight) {
+			long tn = ++totalCount;
+			totalWeight += weight;
+			// power sums are scaled as counts are
+			double sq = sample * sample;
+			totalSum.add(sample * weight);
+			totalSquareSum.add(sq * weight);
+			totalCubeSum.add(sq * sample * weight);
+			// incremental central moments
+			double delta = sample - totalMean;
+			double dn = delta / tn;
+			double term = delta * dn * (tn - 1);
+			totalM3 += term * dn * (tn - 2) - 3 * dn * totalM2;
+			totalM2 += term;
+			totalMean += dn;
+			totalMax = Double.isNaN(totalMax) ? sample : Math.max(totalMax, sample);
+			totalMin = Double.isNaN(totalMin) ? sample : Math.min(totalMin, sample);
+
+			lastTimestamp = Math.max(lastTimestamp, timestamp);
+			long sliceId = lastTimestamp / sliceDuration;
+			int s = (int)(sliceId % sliceIds.length);
+			if (sliceIds[s] != sliceId) {
+				sliceIds[s] = sliceId;
+				counts[s] = 1;
+				weights[s] = weight;
+				sums[s] = sample;
+				means[s] = sample;
+				m2s[s] = 0;
+				mins[s] = sample;
+				maxs[s] = sample;
+			}
+			else {
+				int n = ++counts[s];
+				weights[s] += weight;
+				sums[s] += sample;
+				// Welford's update
+				double d = sample - means[s];
+				means[s] += d / n;
+				m2s[s] += d * (sample - means[s]);
+				mins[s] = Math.min(mins[s], sample);
+				maxs[s] = Math.max(maxs[s], sample);
+			}
+			if (histogram != null) {
+				histogram.record(sliceId, sample);
+			}
+		}
+
+		public synchronized void collect(Summary sum) {
+
+			for(int s = 0; s != sliceIds.length; ++s) {
+				if (sliceIds[s] >= sum.firstSliceId) {
+					sum.addWindow(counts[s], weights[s], sums[s], m2s[s], mins[s], maxs[s]);
+				}
+			}
+			sum.addLifetime(totalCount, totalWeight, totalSum, totalSquareSum, totalCubeSum, totalMean, totalM2, totalM3, totalMin, totalMax);
+			if (histogram != null) {
+				histogram.collect(sum.firstSliceId, sum.windowCounts, sum.totalCounts);
+			}
+		}
+	}
+}
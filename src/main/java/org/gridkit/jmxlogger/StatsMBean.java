@@ -66,12 +66,45 @@ public interface StatsMBean {
 	@Description("Total sum of cubes during MBean lifetime")
 	public BigDecimal getLifetimeCubeSum();
 
+	@Description("Mean value during MBean lifetime")
+	public double getLifetimeMean();
+
+	@Description("Variance of value during MBean lifetime")
+	public double getLifetimeVariance();
+
+	@Description("Skewness of value during MBean lifetime")
+	public double getLifetimeSkewness();
+
 	@Description("Minimum seen value during MBean lifetime")
 	public double getLifetimeMin();
 
 	@Description("Maximum seen value during MBean lifetime")
 	public double getLifetimeMax();
 
+	@Description("50th percentile of value for recent events (NaN if histogram is not configured)")
+	public double getSlidingP50();
+
+	@Description("90th percentile of value for recent events (NaN if histogram is not configured)")
+	public double getSlidingP90();
+
+	@Description("99th percentile of value for recent events (NaN if histogram is not configured)")
+	public double getSlidingP99();
+
+	@Description("99.9th percentile of value for recent events (NaN if histogram is not configured)")
+	public double getSlidingP999();
+
+	@Description("50th percentile of value for MBean lifetime (NaN if histogram is not configured)")
+	public double getLifetimeP50();
+
+	@Description("90th percentile of value for MBean lifetime (NaN if histogram is not configured)")
+	public double getLifetimeP90();
+
+	@Description("99th percentile of value for MBean lifetime (NaN if histogram is not configured)")
+	public double getLifetimeP99();
+
+	@Description("99.9th percentile of value for MBean lifetime (NaN if histogram is not configured)")
+	public double getLifetimeP999();
+
 	@Documented
 	@Retention(RetentionPolicy.RUNTIME)
 	@interface Description {
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+/**
+ * Publishes statistics of every live bucket of a reporter as single
+ * {@link TabularData}, so remote client could collect them in one call
+ * instead of registering and polling MBean per bucket.
+ * <p>
+ * Rows are indexed by bucket name, columns are attributes of {@link StatsMBean}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class StatsTable implements StatsTableMBean {
+
+	private static final String NAME_COLUMN = "Name";
+
+	private static final Method[] COLUMNS;
+	private static final String[] ITEMS;
+	private static final CompositeType ROW_TYPE;
+	private static final TabularType TABLE_TYPE;
+	static {
+		try {
+			List<String> names = new ArrayList<String>();
+			List<OpenType<?>> types = new ArrayList<OpenType<?>>();
+			List<Method> columns = new ArrayList<Method>();
+			names.add(NAME_COLUMN);
+			types.add(SimpleType.STRING);
+			for(Map.Entry<String, Method> e: Stats.GETTERS.entrySet()) {
+				names.add(e.getKey());
+				types.add(openType(e.getValue().getReturnType()));
+				columns.add(e.getValue());
+			}
+			COLUMNS = columns.toArray(new Method[columns.size()]);
+			ITEMS = names.toArray(new String[names.size()]);
+			ROW_TYPE = new CompositeType("BucketStats", "Statistics of single bucket", ITEMS, ITEMS, types.toArray(new OpenType<?>[types.size()]));
+			TABLE_TYPE = new TabularType("BucketStatsTable", "Statistics of buckets", ROW_TYPE, new String[]{NAME_COLUMN});
+		} catch (OpenDataException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static OpenType<?> openType(Class<?> type) {
+		if (type == double.class) {
+			return SimpleType.DOUBLE;
+		}
+		else if (type == long.class) {
+			return SimpleType.LONG;
+		}
+		else if (type == String.class) {
+			return SimpleType.STRING;
+		}
+		else if (type == BigDecimal.class) {
+			return SimpleType.BIGDECIMAL;
+		}
+		else {
+			throw new IllegalArgumentException("No open type for " + type.getName());
+		}
+	}
+
+	private final BucketRegistry registry;
+	private final StatsBucket.Spec spec;
+	private final String template;
+
+	public StatsTable(BucketRegistry registry, StatsBucket.Spec spec, String template) {
+		this.registry = registry;
+		this.spec = spec;
+		this.template = template;
+	}
+
+	public ObjectName getName() {
+		return spec.aggregate;
+	}
+
+	@Override
+	public String getTemplate() {
+		return template;
+	}
+
+	@Override
+	public int getBucketCount() {
+		int n = 0;
+		for(StatsBucket bucket: registry.snapshot()) {
+			if (bucket.spec == spec) {
+				++n;
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public TabularData getBuckets() {
+		return collect(null);
+	}
+
+	@Override
+	public TabularData query(String namePattern) {
+		try {
+			return collect(new ObjectName(namePattern));
+		} catch (MalformedObjectNameException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
+	}
+
+	private TabularData collect(ObjectName filter) {
+		TabularDataSupport table = new TabularDataSupport(TABLE_TYPE);
+		for(StatsBucket bucket: registry.snapshot()) {
+			if (bucket.spec == spec && (filter == null || filter.apply(bucket.bucketName))) {
+				table.put(row(bucket));
+			}
+		}
+		return table;
+	}
+
+	private static CompositeDataSupport row(StatsBucket bucket) {
+		StatsMBean view = new Stats.Snapshot(bucket.analyze());
+		Object[] values = new Object[COLUMNS.length + 1];
+		values[0] = bucket.bucketName.toString();
+		try {
+			for(int i = 0; i != COLUMNS.length; ++i) {
+				values[i + 1] = Stats.read(COLUMNS[i], view);
+			}
+			return new CompositeDataSupport(ROW_TYPE, ITEMS, values);
+		} catch (ReflectionException e) {
+			throw new RuntimeException(e);
+		} catch (OpenDataException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
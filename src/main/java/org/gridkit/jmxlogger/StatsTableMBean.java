@@ -0,0 +1,39 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * Aggregated view of all live buckets produced by single MBean name template.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface StatsTableMBean {
+
+	@StatsMBean.Description("MBean name template of buckets")
+	public String getTemplate();
+
+	@StatsMBean.Description("Number of live buckets")
+	public int getBucketCount();
+
+	@StatsMBean.Description("Statistics of all live buckets, one row per bucket")
+	public TabularData getBuckets();
+
+	@StatsMBean.Description("Statistics of live buckets matching ObjectName pattern")
+	public TabularData query(String namePattern);
+
+}
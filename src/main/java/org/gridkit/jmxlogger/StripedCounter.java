@@ -0,0 +1,62 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter with cells spread over separate cache lines, so concurrent
+ * writers do not contend (as long as there are enough stripes, see {@link ThreadProbe}).
+ * Reads sum all cells and are not atomic snapshot.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class StripedCounter {
+
+	/** Longs per cache line */
+	private static final int PAD = 8;
+
+	private static final int DEFAULT_STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	public StripedCounter() {
+		this(DEFAULT_STRIPES);
+	}
+
+	public StripedCounter(int stripes) {
+		int n = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+		cells = new AtomicLongArray(n * PAD);
+		mask = n - 1;
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(long delta) {
+		cells.getAndAdd((ThreadProbe.get() & mask) * PAD, delta);
+	}
+
+	public long sum() {
+		long s = 0;
+		for(int i = 0; i <= mask; ++i) {
+			s += cells.get(i * PAD);
+		}
+		return s;
+	}
+}
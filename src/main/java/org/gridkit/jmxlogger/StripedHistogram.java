@@ -0,0 +1,80 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread safe lifetime histogram on top of {@link LogLinearHistogram} layout.
+ * Counts are kept per stripe (chosen by thread id), so concurrent
+ * writers rarely touch same cache line.
+ * <p>
+ * Stripe rows are allocated on first write, so histogram which is never
+ * written (e.g. instrumentation is disabled) costs only a reference array,
+ * and footprint is proportional to number of writing threads rather than cores.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class StripedHistogram {
+
+	private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+	private final LogLinearHistogram layout;
+	private final AtomicReferenceArray<AtomicLongArray> rows;
+	private final int mask;
+
+	public StripedHistogram(LogLinearHistogram layout) {
+		this.layout = layout;
+		this.rows = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+		this.mask = STRIPES - 1;
+	}
+
+	public void record(double value) {
+		int stripe = ThreadProbe.get() & mask;
+		AtomicLongArray row = rows.get(stripe);
+		if (row == null) {
+			// rows are separate arrays, so stripes rarely share cache line
+			rows.compareAndSet(stripe, null, new AtomicLongArray(layout.length()));
+			row = rows.get(stripe);
+		}
+		row.getAndIncrement(layout.indexOf(value));
+	}
+
+	/**
+	 * @return percentiles for provided fractions, NaN if histogram is empty
+	 */
+	public double[] percentiles(double... fractions) {
+		long[] merged = new long[layout.length()];
+		long total = 0;
+		for(int s = 0; s <= mask; ++s) {
+			AtomicLongArray row = rows.get(s);
+			if (row == null) {
+				continue;
+			}
+			for(int i = 0; i != merged.length; ++i) {
+				long c = row.get(i);
+				merged[i] += c;
+				total += c;
+			}
+		}
+		double[] result = new double[fractions.length];
+		for(int i = 0; i != fractions.length; ++i) {
+			result[i] = layout.percentile(merged, total, fractions[i]);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stripe index of current thread for striped structures.
+ * <p>
+ * Probes are handed out round robin as threads first ask for them,
+ * so threads are spread evenly over any power of two number of stripes.
+ * Thread ids are not used, as pools may allocate them in steps and
+ * hot pool threads could end up on same stripe.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class ThreadProbe {
+
+	private static final AtomicInteger NEXT = new AtomicInteger();
+
+	private static final ThreadLocal<int[]> PROBE = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[]{NEXT.getAndIncrement()};
+		}
+	};
+
+	/**
+	 * @return probe of current thread, mask it to get stripe index
+	 */
+	public static int get() {
+		return PROBE.get()[0];
+	}
+}
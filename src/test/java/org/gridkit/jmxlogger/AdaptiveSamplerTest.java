@@ -0,0 +1,57 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveSamplerTest {
+
+	@Test
+	public void sampler_meets_budget_and_preserves_totals() {
+		AdaptiveSampler sampler = new AdaptiveSampler(1000);
+		long ts = 1000000;
+		int accepted = 0;
+		double weight = 0;
+		// 20 seconds at 20k lines per second
+		for(int i = 0; i != 400000; ++i) {
+			double w = sampler.sample(ts + i / 20);
+			if (w > 0) {
+				++accepted;
+				weight += w;
+			}
+		}
+		Assert.assertEquals(0.05, sampler.getProbability(), 0.01);
+		// first second is not sampled
+		Assert.assertTrue(accepted < 20000 + 19 * 1500);
+		Assert.assertEquals(400000, weight, 400000 * 0.05);
+	}
+
+	@Test
+	public void sampler_recovers_when_load_drops() {
+		AdaptiveSampler sampler = new AdaptiveSampler(1000);
+		long ts = 0;
+		for(int i = 0; i != 100000; ++i) {
+			sampler.sample(ts + i / 10);
+		}
+		Assert.assertTrue(sampler.getProbability() < 0.2);
+		ts = 10000;
+		for(int i = 0; i != 5000; ++i) {
+			sampler.sample(ts + i);
+		}
+		Assert.assertEquals(1, sampler.getProbability(), 0);
+	}
+}
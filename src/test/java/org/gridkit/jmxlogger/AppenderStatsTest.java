@@ -0,0 +1,61 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AppenderStatsTest {
+
+	@Test
+	public void matcher_counters() {
+		StatisticsEngine app = new StatisticsEngine();
+		app.setPatternLibrary(JmxLoggerConfigTest.PATTERNS);
+		Map<String, String> vars = new HashMap<String, String>();
+		vars.put("NAME", "NAME");
+		vars.put("TIME", "TIME");
+		String pattern = "%{WORD:NAME}: %{NUMBER:TIME}ms";
+		app.addSimpleReporter(pattern, vars, "TestBean:name=%{NAME}", "TIME", "", -1, -1);
+		for(int i = 0; i != 100; ++i) {
+			app.processLogLine(System.currentTimeMillis(), "X" + i % 3 + ": " + i + "ms");
+			app.processLogLine(System.currentTimeMillis(), "unrelated line");
+		}
+
+		AppenderStats stats = new AppenderStats(app);
+		Assert.assertEquals(200, stats.getProcessedLines());
+		Assert.assertEquals(0, stats.getNameFailures());
+		Assert.assertEquals(0, stats.getReportErrors());
+		TabularData table = stats.getMatchers();
+		Assert.assertEquals(1, table.size());
+		CompositeData row = table.get(new Object[]{pattern});
+		Assert.assertEquals(100L, row.get("MatchedLines"));
+		Assert.assertFalse(Double.isNaN((Double)row.get("MatchTimeP99")));
+	}
+
+	@Test
+	public void instrumentation_could_be_disabled() {
+		StatisticsEngine app = new StatisticsEngine();
+		app.setInstrumentation(false);
+		app.processLogLine(System.currentTimeMillis(), "line");
+		Assert.assertEquals(0, new AppenderStats(app).getProcessedLines());
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncLineQueueTest {
+
+	@Test
+	public void capacity_is_rounded_to_power_of_two() {
+		Assert.assertEquals(8, new AsyncLineQueue(5).capacity());
+		Assert.assertEquals(8, new AsyncLineQueue(8).capacity());
+	}
+
+	@Test
+	public void offer_fails_on_full_queue() {
+		AsyncLineQueue queue = new AsyncLineQueue(4);
+		for(int i = 0; i != 4; ++i) {
+			Assert.assertTrue(queue.offer(i, "line" + i));
+		}
+		Assert.assertFalse(queue.offer(4, "line4"));
+
+		long[] ts = new long[8];
+		String[] lines = new String[8];
+		Assert.assertEquals(3, queue.drainTo(ts, lines, 3));
+		Assert.assertEquals("line0", lines[0]);
+		Assert.assertEquals(2, ts[2]);
+		Assert.assertTrue(queue.offer(4, "line4"));
+		Assert.assertEquals(2, queue.drainTo(ts, lines, 8));
+		Assert.assertEquals("line4", lines[1]);
+		Assert.assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void concurrent_producers_and_consumers() throws InterruptedException {
+		final AsyncLineQueue queue = new AsyncLineQueue(64);
+		final int producers = 4;
+		final int perProducer = 100000;
+		final AtomicLong sum = new AtomicLong();
+		final AtomicLong count = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(producers);
+
+		for(int p = 0; p != producers; ++p) {
+			new Thread() {
+				@Override
+				public void run() {
+					for(int i = 0; i != perProducer; ++i) {
+						while(!queue.offer(i, "x")) {
+							Thread.yield();
+						}
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+
+		Thread[] consumers = new Thread[2];
+		for(int c = 0; c != consumers.length; ++c) {
+			consumers[c] = new Thread() {
+				@Override
+				public void run() {
+					long[] ts = new long[16];
+					String[] lines = new String[16];
+					while(count.get() < producers * perProducer) {
+						int n = queue.drainTo(ts, lines, ts.length);
+						for(int i = 0; i != n; ++i) {
+							sum.addAndGet(ts[i]);
+						}
+						count.addAndGet(n);
+						if (n == 0) {
+							Thread.yield();
+						}
+					}
+				}
+			};
+			consumers[c].start();
+		}
+
+		done.await();
+		for(Thread t: consumers) {
+			t.join();
+		}
+
+		Assert.assertEquals(producers * perProducer, count.get());
+		Assert.assertEquals(producers * ((long)perProducer * (perProducer - 1) / 2), sum.get());
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import javax.management.ObjectName;
+
+import org.gridkit.jmxlogger.BucketRegistry.BucketEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BucketRegistryTest {
+
+	private static ObjectName name(String n) throws Exception {
+		return new ObjectName("TestBean:name=" + n);
+	}
+
+	private static StatsBucket.Spec spec() {
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.timeDepth = 1000;
+		return spec;
+	}
+
+	@Test
+	public void limit_is_respected_and_used_buckets_survive() throws Exception {
+		BucketRegistry registry = new BucketRegistry(3);
+		StatsBucket hot = registry.ensureBucket(name("hot"), spec());
+		for(int i = 0; i != 20; ++i) {
+			registry.ensureBucket(name("x" + i), spec());
+			Assert.assertSame(hot, registry.get(name("hot")));
+			Assert.assertTrue(registry.size() <= 3);
+		}
+		Assert.assertFalse(hot.evicted);
+		Assert.assertNull(registry.get(name("x0")));
+	}
+
+	@Test
+	public void feed_reports_additions_and_evictions() throws Exception {
+		BucketRegistry registry = new BucketRegistry(1);
+		StatsBucket a = registry.ensureBucket(name("a"), spec());
+		Assert.assertNull(registry.pollEvent());
+
+		registry.enableFeed();
+		BucketEvent e = registry.pollEvent();
+		Assert.assertTrue(e.added);
+		Assert.assertSame(a, e.bucket);
+
+		StatsBucket b = registry.ensureBucket(name("b"), spec());
+		e = registry.pollEvent();
+		Assert.assertFalse(e.added);
+		Assert.assertSame(a, e.bucket);
+		Assert.assertTrue(a.evicted);
+		e = registry.pollEvent();
+		Assert.assertTrue(e.added);
+		Assert.assertSame(b, e.bucket);
+		Assert.assertNull(registry.pollEvent());
+	}
+
+	@Test
+	public void frequency_admission_keeps_hot_buckets() throws Exception {
+		BucketRegistry registry = new BucketRegistry(3);
+		registry.setFrequencyAdmission(true);
+		StatsBucket.Spec spec = spec();
+		spec.overflowName = name("other");
+
+		StatsBucket[] hot = new StatsBucket[3];
+		for(int i = 0; i != 3; ++i) {
+			hot[i] = registry.ensureBucket(name("hot" + i), spec);
+		}
+		for(int i = 0; i != 1000; ++i) {
+			// hits are sampled, few per scanned name keep estimate of hot buckets well above
+			for(int j = 0; j != 4; ++j) {
+				for(StatsBucket h: hot) {
+					registry.touch(h);
+				}
+			}
+			StatsBucket b = registry.ensureBucket(name("scan" + i), spec);
+			Assert.assertTrue(b.overflow);
+			Assert.assertEquals(name("other"), b.bucketName);
+		}
+		for(StatsBucket h: hot) {
+			Assert.assertFalse(h.evicted);
+		}
+
+		// persistent name eventually earns a slot
+		StatsBucket b = null;
+		for(int i = 0; i != 10000; ++i) {
+			b = registry.ensureBucket(name("rising"), spec);
+			if (!b.overflow) {
+				break;
+			}
+		}
+		Assert.assertFalse(b.overflow);
+		Assert.assertEquals(name("rising"), b.bucketName);
+	}
+
+	@Test
+	public void rejected_admission_keeps_reference_bits() throws Exception {
+		BucketRegistry registry = new BucketRegistry(2);
+		registry.setFrequencyAdmission(true);
+		StatsBucket.Spec spec = spec();
+		spec.overflowName = name("other");
+
+		StatsBucket a = registry.ensureBucket(name("a"), spec);
+		StatsBucket b = registry.ensureBucket(name("b"), spec);
+		// hits are sampled, enough of them to be recorded
+		for(int i = 0; i != 100; ++i) {
+			registry.touch(a);
+			registry.touch(b);
+		}
+		Assert.assertTrue(registry.ensureBucket(name("rare"), spec).overflow);
+		Assert.assertTrue(a.referenced);
+		Assert.assertTrue(b.referenced);
+	}
+
+	@Test
+	public void sampled_accesses_are_weighted() {
+		FrequencySketch sketch = new FrequencySketch(1000);
+		for(int i = 0; i != 8000; ++i) {
+			sketch.sample("hot");
+		}
+		for(int i = 0; i != 100; ++i) {
+			sketch.increment("warm");
+		}
+		Assert.assertEquals(8000, sketch.estimate("hot"), 1200);
+		Assert.assertEquals(100, sketch.estimate("warm"));
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.math.BigDecimal;
+
+import javax.management.ObjectName;
+
+import org.gridkit.jmxlogger.StatisticsEngine.InstantStats;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompensatedSumTest {
+
+	@Test
+	public void small_terms_are_not_lost() {
+		CompensatedSum sum = new CompensatedSum();
+		BigDecimal exact = BigDecimal.ZERO;
+		sum.add(1e17);
+		exact = exact.add(new BigDecimal(1e17));
+		for(int i = 0; i != 100000; ++i) {
+			sum.add(0.1);
+			exact = exact.add(new BigDecimal(0.1));
+		}
+		BigDecimal dd = CompensatedSum.toBigDecimal(sum.hi(), sum.lo());
+		Assert.assertTrue(dd.subtract(exact).abs().compareTo(new BigDecimal(1e-9)) < 0);
+	}
+
+	@Test
+	public void lifetime_moments() throws Exception {
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.timeDepth = 60000;
+		StatsBucket bucket = new StatsBucket(new ObjectName("TestBean:name=test"), spec);
+		long now = System.currentTimeMillis();
+		// large offset would destroy naive sum-of-squares variance
+		for(int i = 0; i != 1000; ++i) {
+			bucket.append(now, 1e9 + (i % 3 == 0 ? 10 : 1));
+		}
+		InstantStats stats = bucket.analyze();
+		double mean = 1e9 + (334 * 10 + 666 * 1) / 1000d;
+		Assert.assertEquals(mean, stats.totalMean, 1e-6);
+		double var = (334 * Math.pow(1e9 + 10 - mean, 2) + 666 * Math.pow(1e9 + 1 - mean, 2)) / 1000;
+		Assert.assertEquals(var, stats.totalVariance, 1e-6);
+		Assert.assertTrue(stats.totalSkewness > 0);
+	}
+}
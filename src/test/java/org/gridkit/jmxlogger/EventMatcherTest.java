@@ -0,0 +1,283 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+import javax.xml.bind.JAXBContext;
+
+import org.gridkit.jmxlogger.JmxLoggerConfig.Config;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EventMatcherTest {
+
+	public static String CONFIG =
+		"<mbean-appender>\n" +
+		"<match>\n" +
+		"<logger>com.acme.http</logger>\n" +
+		"<level>INFO</level>\n" +
+		"<mdc key=\"status\"/>\n" +
+		"<var name=\"URI\">$mdc.uri</var>\n" +
+		"<var name=\"TIME\">$mdc.durationMs</var>\n" +
+		"<var name=\"LEVEL\">$level</var>\n" +
+		"<mbean>\n" +
+		"<name>Http:uri=%{URI},level=%{LEVEL}</name>\n" +
+		"<report>TIME</report>\n" +
+		"</mbean>\n" +
+		"</match>\n" +
+		"</mbean-appender>";
+
+	public static String SCOPED_CONFIG =
+		"<mbean-appender>\n" +
+		"<patterns>\n" +
+		"<![CDATA[\n" +
+		JmxLoggerConfigTest.PATTERNS +
+		"]]>\n" +
+		"</patterns>\n" +
+		"<match>\n" +
+		"<pattern>%{WORD:NAME} took %{NUMBER:TIME}</pattern>\n" +
+		"<logger>com.acme.db</logger>\n" +
+		"<level>WARN</level>\n" +
+		"<var name=\"NAME\">NAME</var>\n" +
+		"<var name=\"TIME\">TIME</var>\n" +
+		"<mbean>\n" +
+		"<name>Db:op=%{NAME}</name>\n" +
+		"<report>TIME</report>\n" +
+		"</mbean>\n" +
+		"</match>\n" +
+		"<match>\n" +
+		"<pattern>%{WORD:NAME} took %{NUMBER:TIME}</pattern>\n" +
+		"<var name=\"NAME\">NAME</var>\n" +
+		"<var name=\"TIME\">TIME</var>\n" +
+		"<mbean>\n" +
+		"<name>Any:op=%{NAME}</name>\n" +
+		"<report>TIME</report>\n" +
+		"</mbean>\n" +
+		"</match>\n" +
+		"</mbean-appender>";
+
+	static class FakeEvent implements LogEventFields {
+
+		String logger;
+		String message = "request completed";
+		int renders;
+		String level;
+		Map<String, String> mdc = new HashMap<String, String>();
+
+		FakeEvent(String logger, String level) {
+			this.logger = logger;
+			this.level = level;
+		}
+
+		FakeEvent mdc(String key, String value) {
+			mdc.put(key, value);
+			return this;
+		}
+
+		@Override
+		public String getLoggerName() {
+			return logger;
+		}
+
+		@Override
+		public String getLevel() {
+			return level;
+		}
+
+		@Override
+		public String getThreadName() {
+			return "main";
+		}
+
+		@Override
+		public Object getProperty(String key) {
+			return mdc.get(key);
+		}
+
+		FakeEvent message(String message) {
+			this.message = message;
+			return this;
+		}
+
+		@Override
+		public CharSequence getMessage() {
+			++renders;
+			return message;
+		}
+	}
+
+	private static StatisticsEngine configure() throws Exception {
+		return configure(CONFIG);
+	}
+
+	private static StatisticsEngine configure(String config) throws Exception {
+		JAXBContext ctx = JAXBContext.newInstance(Config.class);
+		Config c = (Config) ctx.createUnmarshaller().unmarshal(new StringReader(config));
+		StatisticsEngine engine = new StatisticsEngine();
+		engine.processConfig(c);
+		return engine;
+	}
+
+	private static double count(StatisticsEngine engine, String name) throws Exception {
+		StatsBucket bucket = engine.getBucket(new ObjectName(name));
+		return bucket == null ? 0 : new Stats(bucket, 0).snapshot().getSlidingCount();
+	}
+
+	@Test
+	public void vars_are_unmarshalled() throws Exception {
+		JAXBContext ctx = JAXBContext.newInstance(Config.class);
+		Config c = (Config) ctx.createUnmarshaller().unmarshal(new StringReader(CONFIG));
+
+		Assert.assertEquals("[URI, TIME, LEVEL]", c.matchers.get(0).vars.keySet().toString());
+		Assert.assertEquals("$mdc.uri", c.matchers.get(0).vars.get("URI").expr);
+		Assert.assertEquals(1, c.matchers.get(0).mdc.size());
+	}
+
+	@Test
+	public void events_are_matched_by_fields() throws Exception {
+		StatisticsEngine engine = configure();
+		long now = System.currentTimeMillis();
+
+		engine.append(now, new FakeEvent("com.acme.http.Server", "INFO").mdc("status", "200").mdc("uri", "/a").mdc("durationMs", "10"));
+		engine.append(now, new FakeEvent("com.acme.http", "ERROR").mdc("status", "500").mdc("uri", "/a").mdc("durationMs", "20"));
+		engine.append(now, new FakeEvent("com.acme.http.Server", "WARN").mdc("status", "200").mdc("uri", "/b").mdc("durationMs", "30"));
+		// below threshold
+		engine.append(now, new FakeEvent("com.acme.http.Server", "DEBUG").mdc("status", "200").mdc("uri", "/a").mdc("durationMs", "10"));
+		// logger prefix is not a hierarchy parent
+		engine.append(now, new FakeEvent("com.acme.httpx.Server", "INFO").mdc("status", "200").mdc("uri", "/a").mdc("durationMs", "10"));
+		// mdc key is missing
+		engine.append(now, new FakeEvent("com.acme.http.Server", "INFO").mdc("uri", "/a").mdc("durationMs", "10"));
+
+		Assert.assertEquals(1, count(engine, "Http:uri=/a,level=INFO"), 0);
+		Assert.assertEquals(1, count(engine, "Http:uri=/a,level=ERROR"), 0);
+		Assert.assertEquals(1, count(engine, "Http:uri=/b,level=WARN"), 0);
+		Assert.assertEquals(0, count(engine, "Http:uri=/a,level=DEBUG"), 0);
+	}
+
+	@Test
+	public void event_without_value_is_skipped() throws Exception {
+		StatisticsEngine engine = configure();
+		engine.append(System.currentTimeMillis(), new FakeEvent("com.acme.http", "INFO").mdc("status", "200").mdc("uri", "/c"));
+
+		Assert.assertEquals(0, count(engine, "Http:uri=/c,level=INFO"), 0);
+	}
+
+	@Test
+	public void scoped_patterns_are_routed_by_logger_and_level() throws Exception {
+		StatisticsEngine engine = configure(SCOPED_CONFIG);
+		engine.setMatchMode(StatisticsEngine.MATCH_MODE_COMPILED);
+		long now = System.currentTimeMillis();
+
+		engine.append(now, new FakeEvent("com.acme.db.Pool", "WARN").message("select took 10"));
+		engine.append(now, new FakeEvent("com.acme.db", "ERROR").message("select took 20"));
+		// below threshold
+		engine.append(now, new FakeEvent("com.acme.db.Pool", "INFO").message("select took 30"));
+		// other logger
+		engine.append(now, new FakeEvent("com.acme.http", "ERROR").message("select took 40"));
+		// no logger information
+		engine.append(now, "select took 50");
+
+		Assert.assertEquals(2, count(engine, "Db:op=select"), 0);
+		Assert.assertEquals(5, count(engine, "Any:op=select"), 0);
+	}
+
+	@Test
+	public void unrouted_logger_skips_rendering() throws Exception {
+		StatisticsEngine engine = configure(SCOPED_CONFIG.replaceFirst("(?s)</match>.*</match>", "</match>"));
+		engine.setMatchMode(StatisticsEngine.MATCH_MODE_COMPILED);
+		long now = System.currentTimeMillis();
+
+		FakeEvent event = new FakeEvent("com.acme.http", "ERROR").message("select took 10");
+		engine.append(now, event);
+		engine.append(now, event);
+		Assert.assertEquals(0, event.renders);
+
+		FakeEvent dbEvent = new FakeEvent("com.acme.db.Pool", "ERROR").message("select took 10");
+		engine.append(now, dbEvent);
+		Assert.assertEquals(1, dbEvent.renders);
+		Assert.assertEquals(1, count(engine, "Db:op=select"), 0);
+	}
+
+	@Test
+	public void route_cache_keeps_hot_loggers() throws Exception {
+		StatisticsEngine engine = configure(SCOPED_CONFIG);
+		StatisticsEngine.MatcherIndex index = engine.getMatcherIndex();
+		FakeEvent hot = new FakeEvent("com.acme.db.Pool", "WARN");
+		StatisticsEngine.Route route = index.route(hot);
+		for(int i = 0; i != 3 * StatisticsEngine.ROUTE_CACHE_LIMIT; ++i) {
+			index.route(new FakeEvent("com.acme.gen.Logger" + i, "WARN"));
+			Assert.assertSame(route, index.route(hot));
+		}
+		Assert.assertEquals(StatisticsEngine.ROUTE_CACHE_LIMIT, index.cachedRoutes());
+	}
+
+	@Test
+	public void route_is_passed_through_async_queue() throws Exception {
+		StatisticsEngine engine = configure(SCOPED_CONFIG);
+		engine.setAsync(true);
+		engine.start();
+		try {
+			long now = System.currentTimeMillis();
+			for(int i = 0; i != 10; ++i) {
+				engine.append(now, new FakeEvent(i % 2 == 0 ? "com.acme.db" : "com.acme.http", "WARN").message("select took " + i));
+			}
+			long deadline = System.currentTimeMillis() + 5000;
+			while(count(engine, "Any:op=select") < 10 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		}
+		finally {
+			engine.close();
+		}
+
+		Assert.assertEquals(5, count(engine, "Db:op=select"), 0);
+		Assert.assertEquals(10, count(engine, "Any:op=select"), 0);
+	}
+
+	@Test
+	public void event_fields_are_captured_for_async_patterns() throws Exception {
+		StatisticsEngine engine = new StatisticsEngine();
+		engine.setPatternLibrary(JmxLoggerConfigTest.PATTERNS);
+		engine.setMatchMode(StatisticsEngine.MATCH_MODE_COMPILED);
+		Map<String, String> vars = new HashMap<String, String>();
+		vars.put("TIME", "TIME");
+		vars.put("USER", "$mdc.user");
+		vars.put("LEVEL", "$level");
+		engine.addSimpleReporter("took %{NUMBER:TIME}", vars, "Op:user=%{USER},level=%{LEVEL}", "TIME", "", -1, -1);
+		engine.setAsync(true);
+		engine.start();
+		try {
+			long now = System.currentTimeMillis();
+			for(int i = 0; i != 10; ++i) {
+				engine.append(now, new FakeEvent("com.acme", i % 2 == 0 ? "INFO" : "WARN").mdc("user", "u" + i % 2).message("took " + i));
+			}
+			long deadline = System.currentTimeMillis() + 5000;
+			while(count(engine, "Op:user=u0,level=INFO") + count(engine, "Op:user=u1,level=WARN") < 10 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		}
+		finally {
+			engine.close();
+		}
+
+		Assert.assertEquals(5, count(engine, "Op:user=u0,level=INFO"), 0);
+		Assert.assertEquals(5, count(engine, "Op:user=u1,level=WARN"), 0);
+	}
+}
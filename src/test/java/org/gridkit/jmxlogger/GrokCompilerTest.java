@@ -0,0 +1,71 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import org.gridkit.jmxlogger.GrokCompiler.GrokPattern;
+import org.gridkit.jmxlogger.MultiPatternMatcher.MatchSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GrokCompilerTest {
+
+	GrokCompiler compiler = new GrokCompiler(JmxLoggerConfigTest.PATTERNS);
+
+	@Test
+	public void captures_are_mapped_to_groups() {
+		GrokPattern p = compiler.compile("(a|b)?%{WORD:NAME}: %{NUMBER:TIME}ms");
+		Matcher m = p.regex.matcher("x b X1: 15.5ms");
+		Assert.assertTrue(m.find());
+		Assert.assertEquals("X1", m.group(p.groupOf(m, "NAME")));
+		Assert.assertEquals("15.5", m.group(p.groupOf(m, "TIME")));
+		Assert.assertEquals(-1, p.groupOf(m, "NONE"));
+	}
+
+	@Test
+	public void nested_references_are_captured() {
+		GrokPattern p = compiler.compile("user=%{USER:user.name}");
+		Matcher m = p.regex.matcher("user=bob");
+		Assert.assertTrue(m.find());
+		Assert.assertEquals("bob", m.group(p.groupOf(m, "user.name")));
+		Assert.assertEquals("bob", m.group(p.groupOf(m, "USERNAME")));
+	}
+
+	@Test
+	public void multi_pattern_match() {
+		String[] sources = {"%{WORD:NAME}: %{NUMBER:TIME}ms", "took %{NUMBER:TIME}", "%{POSINT:N}"};
+		GrokPattern[] patterns = new GrokPattern[sources.length];
+		List<List<String>> lits = new ArrayList<List<String>>();
+		for(int i = 0; i != sources.length; ++i) {
+			patterns[i] = compiler.compile(sources[i]);
+			lits.add(LiteralIndex.requiredLiterals(sources[i]));
+		}
+		patterns[2] = null;
+		MultiPatternMatcher mpm = new MultiPatternMatcher(patterns, lits);
+
+		MatchSet ms = mpm.match("A: 10ms");
+		Assert.assertEquals(Arrays.asList(0, 2), ms.toList());
+		Assert.assertEquals("10", ms.matcher(0).group(patterns[0].groupOf(ms.matcher(0), "TIME")));
+		Assert.assertNull(ms.matcher(2));
+
+		Assert.assertEquals(Arrays.asList(2), mpm.match("took ms").toList());
+		Assert.assertEquals(Arrays.asList(1, 2), mpm.match("it took 5").toList());
+	}
+}
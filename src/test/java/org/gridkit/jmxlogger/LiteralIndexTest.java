@@ -0,0 +1,62 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LiteralIndexTest {
+
+	@Test
+	public void literals_of_simple_pattern() {
+		Assert.assertEquals(Arrays.asList(": ", "ms"), LiteralIndex.requiredLiterals("%{WORD:NAME}: %{NUMBER:TIME}ms"));
+	}
+
+	@Test
+	public void literals_of_regex_constructs() {
+		Assert.assertEquals(Arrays.asList("abc", "xy"), LiteralIndex.requiredLiterals("abc(d|e)[xyz]+xy"));
+		Assert.assertEquals(Arrays.asList("ab", "d"), LiteralIndex.requiredLiterals("abc?d+"));
+		Assert.assertEquals(Arrays.asList("a.b", "-k"), LiteralIndex.requiredLiterals("a\\.b\\d{2}\\p{Alpha}-k"));
+		Assert.assertEquals(Arrays.asList("time="), LiteralIndex.requiredLiterals("^time=%{INT}x{2,3}$"));
+		Assert.assertEquals(Arrays.asList(), LiteralIndex.requiredLiterals("abc|def"));
+		Assert.assertEquals(Arrays.asList(), LiteralIndex.requiredLiterals("(?i)abc"));
+	}
+
+	@Test
+	public void scan_selects_candidates() {
+		List<List<String>> lits = new ArrayList<List<String>>();
+		lits.add(Arrays.asList(": ", "ms"));
+		lits.add(Arrays.asList("ms"));
+		lits.add(new ArrayList<String>());
+		lits.add(Arrays.asList("she", "hers"));
+		LiteralIndex index = new LiteralIndex(lits);
+
+		assertCandidates(index.scan("X1: 1.5ms"), 0, 1, 2);
+		assertCandidates(index.scan("X1 1.5ms"), 1, 2);
+		assertCandidates(index.scan("nothing"), 2);
+		assertCandidates(index.scan("ushers"), 2, 3);
+		assertCandidates(index.scan("hers"), 2);
+	}
+
+	private void assertCandidates(int[] cands, int... expected) {
+		int[] actual = Arrays.copyOfRange(cands, 1, cands[0] + 1);
+		Assert.assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import javax.management.ObjectName;
+
+import org.gridkit.jmxlogger.StatisticsEngine.InstantStats;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogLinearHistogramTest {
+
+	@Test
+	public void index_is_monotonic_and_bounded() {
+		LogLinearHistogram h = new LogLinearHistogram(1, 3600000, 2);
+		int last = 0;
+		for(double v = 0; v < 5000000; v = v * 1.01 + 1) {
+			int n = h.indexOf(v);
+			Assert.assertTrue(n >= last);
+			Assert.assertTrue(n < h.length());
+			last = n;
+		}
+		Assert.assertEquals(0, h.indexOf(-5));
+		Assert.assertEquals(0, h.indexOf(Double.NaN));
+	}
+
+	@Test
+	public void value_error_is_within_precision() {
+		LogLinearHistogram h = new LogLinearHistogram(0.001, 100000, 3);
+		for(double v = 1; v < 100000; v *= 1.37) {
+			double e = h.valueAt(h.indexOf(v));
+			Assert.assertEquals(v, e, v * 0.001 + 0.001);
+		}
+	}
+
+	@Test
+	public void bucket_percentiles() throws Exception {
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.timeDepth = 60000;
+		spec.histogram = new LogLinearHistogram(1, 100000, 2);
+		StatsBucket bucket = new StatsBucket(new ObjectName("TestBean:name=test"), spec);
+
+		long now = System.currentTimeMillis();
+		for(int i = 1; i <= 1000; ++i) {
+			bucket.append(now, i);
+		}
+
+		InstantStats stats = bucket.analyze();
+		Assert.assertEquals(1000, stats.count, 0);
+		Assert.assertEquals(500, stats.p50, 5);
+		Assert.assertEquals(990, stats.p99, 10);
+		Assert.assertEquals(999, stats.p999, 10);
+		Assert.assertEquals(500, stats.totalP50, 5);
+		Assert.assertEquals(900, stats.totalP90, 9);
+	}
+
+	@Test
+	public void recorder_reuses_slice_rows() {
+		LogLinearHistogram h = new LogLinearHistogram(1, 100000, 2);
+		LogLinearHistogram.Recorder r = h.newRecorder(2);
+		long[] window = new long[h.length()];
+		long[] total = new long[h.length()];
+		r.collect(0, window, total);
+		Assert.assertEquals(0, sum(total));
+
+		r.record(0, 10);
+		r.record(1, 20);
+		// slice 2 takes row of slice 0
+		r.record(2, 30);
+		r.collect(0, window, total);
+		Assert.assertEquals(2, sum(window));
+		Assert.assertEquals(3, sum(total));
+		Assert.assertEquals(30, h.percentile(window, 2, 1), 1);
+	}
+
+	@Test
+	public void analyze_buckets_with_different_layouts() throws Exception {
+		StatsBucket.Spec wide = new StatsBucket.Spec();
+		wide.timeDepth = 60000;
+		wide.histogram = new LogLinearHistogram(0.001, 100000, 3);
+		StatsBucket a = new StatsBucket(new ObjectName("TestBean:name=a"), wide);
+		StatsBucket.Spec narrow = new StatsBucket.Spec();
+		narrow.timeDepth = 60000;
+		narrow.histogram = new LogLinearHistogram(1, 1000, 1);
+		StatsBucket b = new StatsBucket(new ObjectName("TestBean:name=b"), narrow);
+
+		long now = System.currentTimeMillis();
+		a.append(now, 50000);
+		b.append(now, 5);
+		Assert.assertTrue(Double.isNaN(new StatsBucket(new ObjectName("TestBean:name=c"), narrow).analyze().p50));
+		Assert.assertEquals(50000, a.analyze().p50, 50);
+		Assert.assertEquals(5, b.analyze().p50, 1);
+		Assert.assertEquals(50000, a.analyze().p50, 50);
+	}
+
+	private static long sum(long[] counts) {
+		long n = 0;
+		for(long c: counts) {
+			n += c;
+		}
+		return n;
+	}
+
+	@Test
+	public void percentiles_are_nan_without_histogram() throws Exception {
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.timeDepth = 60000;
+		StatsBucket bucket = new StatsBucket(new ObjectName("TestBean:name=test"), spec);
+		bucket.append(System.currentTimeMillis(), 1);
+		Assert.assertTrue(Double.isNaN(bucket.analyze().p99));
+	}
+}
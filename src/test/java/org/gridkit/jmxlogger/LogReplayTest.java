@@ -0,0 +1,163 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.gridkit.jmxlogger.LogReplay.Aggregate;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogReplayTest {
+
+	private static File createLog() throws Exception {
+		File file = File.createTempFile("replay", ".log");
+		file.deleteOnExit();
+		SimpleDateFormat fmt = new SimpleDateFormat(LogReplay.DEFAULT_TIMESTAMP_FORMAT);
+		long base = fmt.parse("2013-06-14 12:00:00,000").getTime();
+		Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		// 3 minutes, one line every 100ms
+		for(int i = 0; i != 1800; ++i) {
+			w.write(fmt.format(base + 100 * i) + " INFO  [main] X" + (i % 3) + ": " + (i % 10) + "ms\r\n");
+			if (i % 7 == 0) {
+				w.write("\tat some.Class.method(Class.java:" + i + ")\n");
+			}
+		}
+		w.close();
+		return file;
+	}
+
+	private static LogReplay newReplay(int threads, int chunkSize) {
+		return newReplay(newEngine(), threads, chunkSize);
+	}
+
+	private static LogReplay newReplay(StatisticsEngine app, int threads, int chunkSize) {
+		LogReplay replay = new LogReplay(app);
+		replay.setThreads(threads);
+		replay.setChunkSize(chunkSize);
+		return replay;
+	}
+
+	private static StatisticsEngine newEngine() {
+		StatisticsEngine app = new StatisticsEngine();
+		app.setPatternLibrary(JmxLoggerConfigTest.PATTERNS);
+		Map<String, String> vars = new HashMap<String, String>();
+		vars.put("NAME", "NAME");
+		vars.put("TIME", "TIME");
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.timeDepth = 30000;
+		spec.histogram = new LogLinearHistogram(1, 1000, 2);
+		app.addReporter("%{WORD:NAME}: %{NUMBER:TIME}ms", vars, "TestBean:name=%{NAME}", "TIME", spec);
+		return app;
+	}
+
+	@Test
+	public void event_time_intervals() throws Exception {
+		File log = createLog();
+		LogReplay replay = newReplay(1, 1 << 20);
+		replay.replay(Arrays.asList(log));
+
+		Assert.assertEquals(1800 + 258, replay.getProcessedLines());
+		Assert.assertEquals(0, replay.getSkippedLines());
+		Assert.assertEquals(3, replay.getResult().size());
+		for(Map<ObjectName, Aggregate> interval: replay.getResult().values()) {
+			Assert.assertEquals(3, interval.size());
+			Aggregate a = interval.get(new ObjectName("TestBean:name=X0"));
+			Assert.assertEquals(200, a.weight, 0);
+			Assert.assertEquals(0, a.min, 0);
+			Assert.assertEquals(9, a.max, 0);
+		}
+	}
+
+	@Test
+	public void engine_settings_do_not_affect_replay() throws Exception {
+		File log = createLog();
+		StatisticsEngine app = newEngine();
+		app.setSamplingBudget(1);
+		app.setEventTimeBudgetMicros(1);
+		LogReplay replay = newReplay(app, 2, 1 << 20);
+		replay.replay(Arrays.asList(log));
+
+		for(Map<ObjectName, Aggregate> interval: replay.getResult().values()) {
+			Assert.assertEquals(200, interval.get(new ObjectName("TestBean:name=X0")).weight, 0);
+		}
+		Assert.assertTrue(app.isInstrumentation());
+		Assert.assertEquals(0, app.processedLines.sum());
+		for(StatisticsEngine.LineMatcher m: app.getMatcherIndex().all()) {
+			Assert.assertEquals(0, m.shed.sum());
+		}
+	}
+
+	@Test
+	public void chunked_replay_matches_sequential() throws Exception {
+		File log = createLog();
+		LogReplay sequential = newReplay(1, 1 << 20);
+		sequential.replay(Arrays.asList(log));
+		LogReplay parallel = newReplay(4, 997);
+		parallel.replay(Arrays.asList(log, log));
+
+		// continuation lines at chunk start have no timestamp and are skipped
+		Assert.assertEquals(2 * sequential.getProcessedLines(), parallel.getProcessedLines() + parallel.getSkippedLines());
+		for(Long slot: sequential.getResult().keySet()) {
+			for(Map.Entry<ObjectName, Aggregate> e: sequential.getResult().get(slot).entrySet()) {
+				Aggregate s = e.getValue();
+				Aggregate p = parallel.getResult().get(slot).get(e.getKey());
+				Assert.assertEquals(2 * s.weight, p.weight, 0);
+				Assert.assertEquals(s.mean, p.mean, 1e-9);
+				Assert.assertEquals(s.stdDev(), p.stdDev(), 1e-9);
+				Assert.assertEquals(s.percentile(0.99), p.percentile(0.99), 0);
+			}
+		}
+
+		StringWriter sw = new StringWriter();
+		parallel.write(sw);
+		String[] rows = sw.toString().split("\n");
+		Assert.assertEquals(1 + 3 * 3, rows.length);
+		Assert.assertTrue(rows[1].contains("TestBean:name=X0"));
+	}
+
+	@Test
+	public void line_longer_than_decode_buffer() throws Exception {
+		File file = File.createTempFile("replay", ".log");
+		file.deleteOnExit();
+		Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		StringBuilder padding = new StringBuilder();
+		for(int i = 0; i != 150000; ++i) {
+			padding.append((char)('a' + i % 26));
+		}
+		w.write("2013-06-14 12:00:00,000 " + padding + " X0: 5ms\n");
+		w.write("2013-06-14 12:00:00,100 X0: 7ms");
+		w.close();
+
+		LogReplay replay = newReplay(1, 1 << 20);
+		replay.replay(Arrays.asList(file));
+
+		Assert.assertEquals(2, replay.getProcessedLines());
+		Aggregate a = replay.getResult().values().iterator().next().get(new ObjectName("TestBean:name=X0"));
+		Assert.assertEquals(2, a.weight, 0);
+		Assert.assertEquals(6, a.mean, 0);
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class LogTailerTest {
+
+	private static final String PATTERN = "%{WORD:NAME}: %{NUMBER:TIME}ms";
+
+	private static StatisticsEngine newEngine() {
+		StatisticsEngine app = new StatisticsEngine();
+		app.setPatternLibrary(JmxLoggerConfigTest.PATTERNS);
+		Map<String, String> vars = new HashMap<String, String>();
+		vars.put("NAME", "NAME");
+		vars.put("TIME", "TIME");
+		app.addSimpleReporter(PATTERN, vars, "TestBean:name=%{NAME}", "TIME", "", -1, -1);
+		return app;
+	}
+
+	private static long matched(StatisticsEngine app) {
+		CompositeData row = new AppenderStats(app).getMatchers().get(new Object[]{PATTERN});
+		return (Long)row.get("MatchedLines");
+	}
+
+	private static void write(File file, boolean append, String text) throws IOException {
+		write(file, append, text, "UTF-8");
+	}
+
+	private static void write(File file, boolean append, String text, String encoding) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file, append);
+		fos.write(text.getBytes(encoding));
+		fos.close();
+	}
+
+	private static File tempDir() throws IOException {
+		File dir = File.createTempFile("tail", "");
+		dir.delete();
+		dir.mkdir();
+		return dir;
+	}
+
+	@Test
+	public void follow_append_rotation_and_truncation() throws IOException {
+		File dir = File.createTempFile("tail", "");
+		dir.delete();
+		dir.mkdir();
+		File log = new File(dir, "app.log");
+		write(log, false, "old: 1ms\n");
+
+		StatisticsEngine app = newEngine();
+		// small buffer to exercise lines spanning reads
+		LogTailer tailer = new LogTailer(app, 16);
+		tailer.addFile(log);
+		tailer.poll();
+		Assert.assertEquals("existing content is skipped", 0, matched(app));
+
+		write(log, true, "A: 1ms\r\nnoise line which is longer than buffer\nB: 2ms\nC: 3");
+		tailer.poll();
+		Assert.assertEquals(2, matched(app));
+		Assert.assertEquals(3, new AppenderStats(app).getProcessedLines());
+
+		write(log, true, "ms\n");
+		tailer.poll();
+		Assert.assertEquals(3, matched(app));
+
+		// rotation, new file has more content than old one
+		File rotated = new File(dir, "app.log.1");
+		Assert.assertTrue(log.renameTo(rotated));
+		write(rotated, true, "D: 4ms\n");
+		write(log, false, "E: 5ms\nF: 6ms\nG: 7ms\nH: 8ms\nI: 9ms\nJ: 10ms\nK: 11ms\nL: 12ms\n");
+		tailer.poll();
+		Assert.assertEquals(3 + 1 + 8, matched(app));
+
+		// truncation
+		write(log, false, "M: 1ms\n");
+		tailer.poll();
+		Assert.assertEquals(13, matched(app));
+
+		tailer.stop();
+		log.delete();
+		rotated.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void rotation_to_file_of_same_size() throws IOException {
+		File dir = tempDir();
+		File log = new File(dir, "app.log");
+		write(log, false, "");
+
+		StatisticsEngine app = newEngine();
+		LogTailer tailer = new LogTailer(app, 16);
+		tailer.addFile(log);
+		tailer.poll();
+		write(log, true, "A: 1ms\n");
+		tailer.poll();
+		Assert.assertEquals(1, matched(app));
+
+		File rotated = new File(dir, "app.log.1");
+		Assert.assertTrue(log.renameTo(rotated));
+		write(log, false, "B: 2ms\n");
+		// coarse file systems may keep modification time
+		log.setLastModified(rotated.lastModified() + 2000);
+		tailer.poll();
+		Assert.assertEquals(2, matched(app));
+
+		tailer.stop();
+		log.delete();
+		rotated.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void stateful_charset_across_reads() throws Exception {
+		Assume.assumeTrue(Charset.isSupported("ISO-2022-JP"));
+		File dir = tempDir();
+		File log = new File(dir, "app.log");
+		write(log, false, "");
+
+		StatisticsEngine app = newEngine();
+		// shift sequences are split between reads
+		LogTailer tailer = new LogTailer(app, 16);
+		tailer.setCharset(Charset.forName("ISO-2022-JP"));
+		tailer.setFromStart(true);
+		tailer.addFile(log);
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i != 10; ++i) {
+			text.append("\u65e5\u672c\u8a9e\u30c6\u30ad\u30b9\u30c8 X").append(i).append(": ").append(i).append("ms \u30c6\u30ad\u30b9\u30c8\n");
+		}
+		write(log, true, text.toString(), "ISO-2022-JP");
+		tailer.poll();
+		Assert.assertEquals(10, matched(app));
+		for(int i = 0; i != 10; ++i) {
+			Assert.assertNotNull(app.getBucket(new ObjectName("TestBean:name=X" + i)));
+		}
+
+		tailer.stop();
+		log.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void non_candidate_lines_are_counted() {
+		StatisticsEngine app = newEngine();
+		app.processLogLine(System.currentTimeMillis(), new StringBuilder("no match here"));
+		app.processLogLine(System.currentTimeMillis(), new StringBuilder("X: 1ms"));
+		Assert.assertEquals(2, new AppenderStats(app).getProcessedLines());
+		Assert.assertEquals(1, matched(app));
+	}
+}
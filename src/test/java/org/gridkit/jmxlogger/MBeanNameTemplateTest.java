@@ -0,0 +1,51 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MBeanNameTemplateTest {
+
+	@Test
+	public void name_is_instantiated_and_cached() throws Exception {
+		MBeanNameTemplate t = new MBeanNameTemplate("TestBean:name=%{NAME},type=%{TYPE},x=%{X}", new String[]{"TYPE", "NAME"}, 4);
+		ExtractionRecord rec = new ExtractionRecord();
+		rec.reset(2);
+		String line = "checkout took 10ms";
+		rec.set(0, "web");
+		rec.set(1, line, 0, 8);
+
+		ObjectName name = t.resolve(rec).name;
+		Assert.assertEquals(new ObjectName("TestBean:name=checkout,type=web,x=%{X}"), name);
+		Assert.assertSame(t.resolve(rec), t.resolve(rec));
+
+		rec.set(1, "checkin");
+		Assert.assertEquals(new ObjectName("TestBean:name=checkin,type=web,x=%{X}"), t.resolve(rec).name);
+	}
+
+	@Test
+	public void malformed_name_yields_null() {
+		MBeanNameTemplate t = new MBeanNameTemplate("TestBean:name=%{NAME}", new String[]{"NAME"}, 4);
+		ExtractionRecord rec = new ExtractionRecord();
+		rec.reset(1);
+		rec.set(0, "a,b");
+		Assert.assertNull(t.resolve(rec).name);
+		Assert.assertNull(t.resolve(rec).name);
+	}
+}
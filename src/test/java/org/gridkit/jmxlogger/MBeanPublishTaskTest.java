@@ -0,0 +1,83 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimerTask;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MBeanPublishTaskTest {
+
+	@Test
+	public void changes_are_published_in_batches() throws Exception {
+		StatisticsEngine app = new StatisticsEngine();
+		app.setPatternLibrary(JmxLoggerConfigTest.PATTERNS);
+		Map<String, String> vars = new HashMap<String, String>();
+		vars.put("NAME", "NAME");
+		vars.put("TIME", "TIME");
+		app.addSimpleReporter("%{WORD:NAME}: %{NUMBER:TIME}ms", vars, "TestBean:name=%{NAME}", "TIME", "", -1, -1);
+		app.setPublishBatchSize(10);
+		app.setPublishPeriod("20ms");
+
+		final Set<ObjectName> registered = Collections.synchronizedSet(new HashSet<ObjectName>());
+		final Map<ObjectName, Object> beans = Collections.synchronizedMap(new HashMap<ObjectName, Object>());
+		TimerTask task = app.publishJmx(new MBeanPublisher() {
+			@Override
+			public void registerMBean(ObjectName name, Object bean) {
+				registered.add(name);
+				beans.put(name, bean);
+			}
+
+			@Override
+			public void unregisterMBean(ObjectName name) {
+				registered.remove(name);
+			}
+		});
+		try {
+			for(int i = 0; i != 100; ++i) {
+				app.processLogLine(System.currentTimeMillis(), "X" + i + ": 10ms");
+			}
+			long deadline = System.currentTimeMillis() + 5000;
+			// buckets plus appender's own MBean
+			while(registered.size() < 101 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(101, registered.size());
+			Assert.assertTrue(registered.contains(AppenderStats.nameOf(app)));
+
+			MBeanServer server = MBeanServerFactory.newMBeanServer();
+			ObjectName statsName = AppenderStats.nameOf(app);
+			server.registerMBean(beans.get(statsName), statsName);
+			long lag = (Long)server.getAttribute(statsName, "RegistrationLag");
+			Assert.assertTrue(lag >= 0);
+			Assert.assertTrue((Long)server.getAttribute(statsName, "MaxRegistrationLag") >= lag);
+		}
+		finally {
+			task.cancel();
+		}
+		Assert.assertTrue(registered.isEmpty());
+	}
+}
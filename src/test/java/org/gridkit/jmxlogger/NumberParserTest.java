@@ -0,0 +1,79 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NumberParserTest {
+
+	private static double parse(String text) {
+		String line = "[" + text + "]";
+		return NumberParser.parseDouble(line, 1, line.length() - 1);
+	}
+
+	private static void check(String text) {
+		Assert.assertEquals(text, Double.doubleToLongBits(Double.parseDouble(text)), Double.doubleToLongBits(parse(text)));
+	}
+
+	@Test
+	public void decimal_forms() {
+		check("0");
+		check("-0");
+		check("15");
+		check("+15");
+		check("-1234567890");
+		check("0.05");
+		check("1.5");
+		check(".5");
+		check("5.");
+		check("123456789012345678901234567890");
+		check("0.1234567890123456789");
+		check("1e3");
+		check("-2.5E-3");
+		check("0.000000000000000000000000001");
+	}
+
+	@Test
+	public void random_decimals() {
+		Random rnd = new Random(1);
+		for(int i = 0; i != 100000; ++i) {
+			check(String.valueOf(rnd.nextInt()));
+			check(String.valueOf(rnd.nextGaussian()));
+			check(String.valueOf(rnd.nextInt(100000) / 1000d));
+			check(rnd.nextInt(1000) + "." + rnd.nextInt(1000000));
+		}
+	}
+
+	@Test
+	public void hex_integers() {
+		Assert.assertEquals(26, parse("0x1A"), 0);
+		Assert.assertEquals(-255, parse("-0xff"), 0);
+		Assert.assertEquals(0x1.8p1, parse("0x1.8p1"), 0);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void empty_value() {
+		parse("");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void garbage_value() {
+		parse("12ms");
+	}
+}
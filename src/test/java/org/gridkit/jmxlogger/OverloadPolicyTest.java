@@ -0,0 +1,145 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.io.StringReader;
+
+import javax.xml.bind.JAXBContext;
+
+import org.gridkit.jmxlogger.JmxLoggerConfig.Config;
+import org.gridkit.jmxlogger.StatisticsEngine.LineMatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OverloadPolicyTest {
+
+	private static int overflow(StatisticsEngine app, AsyncLineQueue queue) {
+		for(int i = 0; i != 10; ++i) {
+			app.enqueueLogLine(queue, i, "line " + i);
+		}
+		long[] ts = new long[16];
+		String[] lines = new String[16];
+		int n = queue.drainTo(ts, lines, 16);
+		return n == 0 ? -1 : (int)ts[0];
+	}
+
+	@Test
+	public void drop_newest_keeps_queued_lines() {
+		StatisticsEngine app = new StatisticsEngine();
+		app.setOverloadPolicy("drop-newest");
+		Assert.assertEquals(0, overflow(app, new AsyncLineQueue(4)));
+		Assert.assertEquals(6, app.droppedLines.sum());
+	}
+
+	@Test
+	public void drop_oldest_keeps_recent_lines() {
+		StatisticsEngine app = new StatisticsEngine();
+		app.setOverloadPolicy("drop-oldest");
+		Assert.assertEquals(6, overflow(app, new AsyncLineQueue(4)));
+		Assert.assertEquals(6, app.droppedLines.sum());
+	}
+
+	@Test
+	public void bypass_sheds_lines() {
+		StatisticsEngine app = new StatisticsEngine();
+		app.setOverloadPolicy("bypass");
+		Assert.assertEquals(0, overflow(app, new AsyncLineQueue(4)));
+		Assert.assertEquals(6, app.shedLines.sum());
+		Assert.assertEquals(0, app.droppedLines.sum());
+	}
+
+	@Test(timeout = 10000)
+	public void block_processes_inline_on_closed_queue() {
+		StatisticsEngine app = new StatisticsEngine();
+		AsyncLineQueue queue = new AsyncLineQueue(4);
+		for(int i = 0; i != 4; ++i) {
+			app.enqueueLogLine(queue, i, "line " + i);
+		}
+		queue.close();
+		app.enqueueLogLine(queue, 4, "line 4");
+		app.enqueueLogLine(queue, 5, "line 5");
+		Assert.assertEquals(2, app.processedLines.sum());
+		Assert.assertEquals(4, queue.size());
+	}
+
+	private static StatisticsEngine configure() throws Exception {
+		JAXBContext ctx = JAXBContext.newInstance(Config.class);
+		Config c = (Config) ctx.createUnmarshaller().unmarshal(new StringReader(EventMatcherTest.SCOPED_CONFIG));
+		StatisticsEngine engine = new StatisticsEngine();
+		engine.processConfig(c);
+		engine.setMatchMode(StatisticsEngine.MATCH_MODE_COMPILED);
+		return engine;
+	}
+
+	private static LineMatcher unscoped(StatisticsEngine engine) {
+		StatisticsEngine.Route plain = engine.getMatcherIndex().plain;
+		Assert.assertEquals(1, plain.ids.length);
+		return engine.getMatcherIndex().matchers[plain.ids[0]];
+	}
+
+	@Test
+	public void drops_are_charged_to_routed_matchers() throws Exception {
+		StatisticsEngine app = configure();
+		app.setOverloadPolicy("drop-oldest");
+		overflow(app, new AsyncLineQueue(4));
+		Assert.assertEquals(6, unscoped(app).dropped.sum());
+
+		app.setOverloadPolicy("bypass");
+		overflow(app, new AsyncLineQueue(4));
+		Assert.assertEquals(6, unscoped(app).shed.sum());
+	}
+
+	@Test
+	public void time_budget_applies_in_sync_mode() throws Exception {
+		StatisticsEngine app = configure();
+		Assert.assertSame(StatisticsEngine.OVERLOAD_BLOCK, app.getOverloadPolicy());
+		app.setEventTimeBudgetMicros(1);
+		long now = System.currentTimeMillis();
+		// first line creates bucket, which takes longer than budget
+		app.processLogLine(now, "select took 10");
+		app.processLogLine(now, "select took 20");
+		LineMatcher matcher = unscoped(app);
+		Assert.assertEquals(1, matcher.overloads.sum());
+		Assert.assertEquals(1, matcher.shed.sum());
+	}
+
+	@Test
+	public void close_processes_queued_lines() {
+		StatisticsEngine app = new StatisticsEngine();
+		app.setAsync(true);
+		app.start();
+		for(int i = 0; i != 10000; ++i) {
+			app.append(i, "line " + i);
+		}
+		app.close();
+		Assert.assertEquals(10000, app.processedLines.sum() + app.droppedLines.sum());
+		Assert.assertEquals(0, app.getAsyncQueueSize());
+	}
+
+	@Test
+	public void policy_is_validated() {
+		StatisticsEngine app = new StatisticsEngine();
+		app.setOverloadPolicy(" Drop-Oldest ");
+		Assert.assertSame(StatisticsEngine.OVERLOAD_DROP_OLDEST, app.getOverloadPolicy());
+		try {
+			app.setOverloadPolicy("ignore");
+			Assert.fail();
+		}
+		catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
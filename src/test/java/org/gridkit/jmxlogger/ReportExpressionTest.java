@@ -0,0 +1,106 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReportExpressionTest {
+
+	private static final String[] VARS = {"A", "B", "K", "NAME"};
+	private static final String[] CONSTS = {null, null, "1000", "abc"};
+
+	private static double eval(String expr, double a, double b) {
+		ReportExpression e = ReportExpression.compile(expr, VARS, CONSTS);
+		return e.evaluate(new double[]{a, b, Double.NaN, Double.NaN});
+	}
+
+	@Test
+	public void arithmetic() {
+		Assert.assertEquals(7, eval("A + B * 2", 3, 2), 0);
+		Assert.assertEquals(10, eval("(A + B) * 2", 3, 2), 0);
+		Assert.assertEquals(1, eval("A - B", 3, 2), 0);
+		Assert.assertEquals(-1, eval("-A + B", 3, 2), 0);
+		Assert.assertEquals(1.5, eval("A / B", 3, 2), 0);
+		Assert.assertEquals(1, eval("A % B", 3, 2), 0);
+		Assert.assertEquals(0.0025, eval("2.5e-3 * A", 1, 0), 1e-12);
+	}
+
+	@Test
+	public void constants_are_folded() {
+		ReportExpression e = ReportExpression.compile("A / K", VARS, CONSTS);
+		Assert.assertArrayEquals(new int[]{0}, e.getSlots());
+		Assert.assertEquals(1.5, e.evaluate(new double[]{1500, 0, 0, 0}), 0);
+
+		ReportExpression c = ReportExpression.compile("K * 2 + max(1, 3)", VARS, CONSTS);
+		Assert.assertEquals(0, c.getSlots().length);
+		Assert.assertEquals(2003, c.evaluate(null), 0);
+	}
+
+	@Test
+	public void conditions_and_functions() {
+		Assert.assertEquals(3, eval("A > B ? A : B", 3, 2), 0);
+		Assert.assertEquals(2, eval("A < B ? A : B", 3, 2), 0);
+		Assert.assertEquals(1, eval("A >= 3 && B != 3", 3, 2), 0);
+		Assert.assertEquals(0, eval("!(A == 3) || B <= 1", 3, 2), 0);
+		Assert.assertEquals(2, eval("min(A, B)", 3, 2), 0);
+		Assert.assertEquals(3, eval("max(A, B)", 3, 2), 0);
+		Assert.assertEquals(1, eval("abs(B - A)", 3, 2), 0);
+		Assert.assertTrue(Double.isNaN(eval("A > 5 ? A : NaN", 3, 2)));
+	}
+
+	@Test
+	public void bad_expressions_are_rejected() {
+		String[] bad = {"A +", "A B", "C * 2", "NAME + 1", "foo(A)", "(A", "min(A)", "1.2.3"};
+		for(String expr: bad) {
+			try {
+				ReportExpression.compile(expr, VARS, CONSTS);
+				Assert.fail("Should fail: " + expr);
+			}
+			catch(IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void engine_reports_derived_value() throws Exception {
+		StatisticsEngine engine = new StatisticsEngine();
+		engine.setPatternLibrary(JmxLoggerConfigTest.PATTERNS);
+		engine.setMatchMode(StatisticsEngine.MATCH_MODE_COMPILED);
+		Map<String, String> vars = new LinkedHashMap<String, String>();
+		vars.put("NAME", "NAME");
+		vars.put("START", "START");
+		vars.put("END", "END");
+		vars.put("US", "1000");
+		engine.addSimpleReporter("%{WORD:NAME} %{NUMBER:START} to %{NUMBER:END}", vars, "Span:name=%{NAME}", "END > START ? (END - START) / US : NaN", "", -1, -1);
+
+		long now = System.currentTimeMillis();
+		engine.append(now, "op 1000 to 3000");
+		engine.append(now, "op 2000 to 6000");
+		// skipped by expression
+		engine.append(now, "op 5000 to 1000");
+
+		StatsMBean s = new Stats(engine.getBucket(new ObjectName("Span:name=op")), 0).snapshot();
+		Assert.assertEquals(2, s.getSlidingCount(), 0);
+		Assert.assertEquals(3, s.getSlidingAverage(), 1e-9);
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatisticsMBeanAppenderTest {
+
+	private static final String PATTERN = "%{WORD:NAME}: %{NUMBER:TIME}ms";
+
+	private static void addReporter(StatisticsEngine engine) {
+		engine.setPatternLibrary(JmxLoggerConfigTest.PATTERNS);
+		Map<String, String> vars = new HashMap<String, String>();
+		vars.put("NAME", "NAME");
+		vars.put("TIME", "TIME");
+		engine.addSimpleReporter(PATTERN, vars, "TestBean:name=%{NAME}", "TIME", "", -1, -1);
+	}
+
+	private static long matched(StatisticsEngine engine) {
+		return (Long)new AppenderStats(engine).getMatchers().get(new Object[]{PATTERN}).get("MatchedLines");
+	}
+
+	@Test
+	public void log4j_events_reach_engine() {
+		StatisticsMBeanAppender appender = new StatisticsMBeanAppender();
+		appender.setName("test-appender");
+		appender.setLayout(new PatternLayout("%m"));
+		addReporter(appender.getEngine());
+		appender.activateOptions();
+
+		Logger logger = Logger.getLogger("StatisticsMBeanAppenderTest");
+		logger.setAdditivity(false);
+		logger.addAppender(appender);
+		try {
+			for(int i = 0; i != 10; ++i) {
+				logger.info("X" + i % 2 + ": " + i + "ms");
+			}
+		}
+		finally {
+			logger.removeAppender(appender);
+			appender.close();
+		}
+
+		Assert.assertEquals(10, matched(appender.getEngine()));
+		Assert.assertEquals("test-appender", AppenderStats.nameOf(appender.getEngine()).getKeyProperty("name").replace("\"", ""));
+	}
+
+	@Test
+	public void reusable_buffer_is_not_retained() throws Exception {
+		StatisticsEngine engine = new StatisticsEngine();
+		engine.setMatchMode(StatisticsEngine.MATCH_MODE_COMPILED);
+		addReporter(engine);
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i != 10; ++i) {
+			sb.setLength(0);
+			sb.append("A").append(i % 2).append(": ").append(i).append("ms");
+			engine.append(System.currentTimeMillis(), sb);
+		}
+		sb.setLength(0);
+		sb.append("garbage");
+
+		Assert.assertEquals(10, matched(engine));
+		Assert.assertEquals(5, new Stats(engine.getBucket(new ObjectName("TestBean:name=A0")), 0).snapshot().getSlidingCount(), 0);
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import javax.management.ObjectName;
+
+import org.gridkit.jmxlogger.StatisticsEngine.InstantStats;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatsBucketTest {
+
+	private static StatsBucket bucket(int stripes) throws Exception {
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.timeDepth = 60000;
+		spec.stripes = stripes;
+		return new StatsBucket(new ObjectName("TestBean:name=test"), spec);
+	}
+
+	@Test
+	public void striped_bucket_matches_plain_bucket() throws Exception {
+		final StatsBucket plain = bucket(1);
+		final StatsBucket striped = bucket(4);
+		Assert.assertEquals(4, striped.getStripeCount());
+
+		final long now = System.currentTimeMillis();
+		Thread[] writers = new Thread[4];
+		for(int t = 0; t != writers.length; ++t) {
+			final int tn = t;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					for(int i = 0; i != 200; ++i) {
+						double v = tn * 100 + i % 17;
+						plain.append(now, v);
+						striped.append(now, v);
+					}
+				}
+			};
+			writers[t].start();
+		}
+		for(Thread t: writers) {
+			t.join();
+		}
+
+		InstantStats a = plain.analyze();
+		InstantStats b = striped.analyze();
+		Assert.assertEquals(800, a.count, 0);
+		Assert.assertEquals(a.count, b.count, 0);
+		Assert.assertEquals(a.avg, b.avg, 1e-9);
+		Assert.assertEquals(a.stdDev, b.stdDev, 1e-9);
+		Assert.assertEquals(a.min, b.min, 0);
+		Assert.assertEquals(a.max, b.max, 0);
+		Assert.assertEquals(a.totalCount, b.totalCount);
+		Assert.assertEquals(a.totalSum + a.totalSumLo, b.totalSum + b.totalSumLo, 0);
+		Assert.assertEquals(a.totalSquareSum + a.totalSquareSumLo, b.totalSquareSum + b.totalSquareSumLo, 0);
+		Assert.assertEquals(a.getTotalSum().doubleValue(), b.getTotalSum().doubleValue(), 0);
+		Assert.assertEquals(a.totalMean, b.totalMean, 1e-9);
+		Assert.assertEquals(a.totalVariance, b.totalVariance, 1e-6);
+		Assert.assertEquals(a.totalSkewness, b.totalSkewness, 1e-9);
+		Assert.assertEquals(a.totalMin, b.totalMin, 0);
+		Assert.assertEquals(a.totalMax, b.totalMax, 0);
+	}
+
+	@Test
+	public void window_drops_expired_slices() throws Exception {
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.timeDepth = 200;
+		spec.slices = 4;
+		StatsBucket bucket = new StatsBucket(new ObjectName("TestBean:name=test"), spec);
+
+		for(int i = 0; i != 100000; ++i) {
+			bucket.append(System.currentTimeMillis(), 1000);
+		}
+		Thread.sleep(500);
+		long now = System.currentTimeMillis();
+		for(int i = 0; i != 5000; ++i) {
+			bucket.append(now, i % 10);
+		}
+
+		InstantStats stats = bucket.analyze();
+		Assert.assertEquals(5000, stats.count, 0);
+		Assert.assertEquals(4.5, stats.avg, 1e-9);
+		Assert.assertEquals(0, stats.min, 0);
+		Assert.assertEquals(9, stats.max, 0);
+		Assert.assertEquals(Math.sqrt(8.25), stats.stdDev, 1e-9);
+		Assert.assertEquals(105000, stats.totalCount);
+		Assert.assertTrue(stats.window > 0);
+	}
+
+	@Test
+	public void threads_are_spread_over_stripes() throws Exception {
+		final int[] probes = new int[4];
+		for(int i = 0; i != probes.length; ++i) {
+			final int n = i;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					probes[n] = ThreadProbe.get();
+				}
+			};
+			t.start();
+			t.join();
+		}
+		boolean[] used = new boolean[4];
+		for(int p: probes) {
+			used[p & 3] = true;
+		}
+		for(boolean u: used) {
+			Assert.assertTrue(u);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatsTableTest {
+
+	@Test
+	public void table_lists_buckets_of_template() throws Exception {
+		BucketRegistry registry = new BucketRegistry(100);
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.timeDepth = 60000;
+		spec.aggregate = new ObjectName("StatsTableTest:type=Aggregate");
+		StatsBucket.Spec other = new StatsBucket.Spec();
+		other.timeDepth = 60000;
+
+		long now = System.currentTimeMillis();
+		for(int i = 0; i != 10; ++i) {
+			registry.ensureBucket(new ObjectName("StatsTableTest:name=X" + i), spec).append(now, i);
+		}
+		registry.ensureBucket(new ObjectName("StatsTableTest:name=Y"), other).append(now, 1);
+
+		StatsTable table = new StatsTable(registry, spec, "StatsTableTest:name=%{X}");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(table, spec.aggregate);
+		try {
+			TabularData all = (TabularData) server.getAttribute(spec.aggregate, "Buckets");
+			Assert.assertEquals(10, all.size());
+			CompositeData row = all.get(new Object[]{"StatsTableTest:name=X3"});
+			Assert.assertEquals(3d, row.get("SlidingAverage"));
+			Assert.assertEquals(1L, row.get("LifetimeCount"));
+
+			TabularData some = (TabularData) server.invoke(spec.aggregate, "query", new Object[]{"StatsTableTest:name=X1*"}, new String[]{String.class.getName()});
+			Assert.assertEquals(1, some.size());
+		}
+		finally {
+			server.unregisterMBean(spec.aggregate);
+		}
+	}
+}
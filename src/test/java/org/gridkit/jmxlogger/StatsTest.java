@@ -0,0 +1,57 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jmxlogger;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatsTest {
+
+	@Test
+	public void attributes_are_served_from_single_snapshot() throws Exception {
+		ObjectName name = new ObjectName("StatsTest:name=test");
+		StatsBucket.Spec spec = new StatsBucket.Spec();
+		spec.timeDepth = 60000;
+		StatsBucket bucket = new StatsBucket(name, spec);
+		bucket.append(System.currentTimeMillis(), 10);
+
+		Stats stats = new Stats(bucket, 60000);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(stats, name);
+		try {
+			AttributeList list = server.getAttributes(name, new String[]{"SlidingCount", "LifetimeSum", "LifetimeMean", "NoSuchAttribute"});
+			Assert.assertEquals(3, list.size());
+			Assert.assertEquals(1d, ((Attribute)list.get(0)).getValue());
+			Assert.assertEquals(0, new BigDecimal(10).compareTo((BigDecimal)((Attribute)list.get(1)).getValue()));
+
+			// snapshot is reused within TTL
+			bucket.append(System.currentTimeMillis(), 10);
+			Assert.assertEquals(1d, server.getAttribute(name, "SlidingCount"));
+			Assert.assertEquals(StatsMBean.class.getMethods().length, server.getMBeanInfo(name).getAttributes().length);
+		}
+		finally {
+			server.unregisterMBean(name);
+		}
+	}
+}